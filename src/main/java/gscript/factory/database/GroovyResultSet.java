@@ -5,6 +5,7 @@ import gscript.factory.database.hsqldb.GroovyHSQLDBTable;
 import gscript.factory.database.hsqldb.GroovyHSQLDBTableStruct;
 import gscript.factory.document.GroovyMultilineDocument;
 import gscript.factory.format.GroovyDBTablePrinter;
+import gscript.util.dictionary.StringDictionary;
 import org.apache.commons.lang3.ArrayUtils;
 
 import java.io.InputStream;
@@ -62,11 +63,16 @@ public final class GroovyResultSet implements AutoCloseable {
         for (int i = 0; i < metaData.getColumnCount(); i++)
             columns.add(metaData.getColumnName(i + 1));
 
+        // repeated string values of column share string instance
+        final StringDictionary[] dictionaries = StringDictionary.create(columns.size());
+
         int rows = 0;
         while (resultSet.next()) {
             final GroovyMultilineDocument.Line line = document.createLine();
-            for (int i = 0; i < columns.size(); i++)
-                line.put(columns.get(i), resultSet.getObject(i + 1));
+            for (int i = 0; i < columns.size(); i++) {
+                final Object value = resultSet.getObject(i + 1);
+                line.put(columns.get(i), value instanceof String ? dictionaries[i].intern((String) value) : value);
+            }
 
             rows++;
         }
@@ -4,12 +4,67 @@ import gscript.Factory;
 
 public final class GroovyDocumentFactory {
 
+    /**
+     * Default max number of lines of spill document kept in memory
+     */
+    private static final int DEFAULT_MAX_LINES_IN_MEMORY = 1_000_000;
+
     private final Factory factory;
 
     public GroovyMultilineDocument createDocument() {
         return new GroovyMultilineDocument(factory);
     }
 
+    /**
+     * Create document with columnar lines storage.
+     * <p>
+     * Line values are kept in typed column arrays, so big documents take much less memory.
+     * Line fields are ordered as document columns. Dates are kept as put (see {@link #createColumnarDocument(boolean)}).
+     *
+     * @return document
+     */
+    public GroovyMultilineDocument createColumnarDocument() {
+        return createColumnarDocument(false);
+    }
+
+    /**
+     * Create document with columnar lines storage
+     *
+     * @param compactDates keep dates as epoch millis: every read returns new Date instance, so changes of date
+     *                     made in place (setTime, date arithmetic on the instance) are lost unless date is put again
+     * @return document
+     */
+    public GroovyMultilineDocument createColumnarDocument(boolean compactDates) {
+        return new GroovyMultilineDocument(factory, new GroovyMultilineDocumentColumnStorage(compactDates));
+    }
+
+    /**
+     * Create document whose lines are spilled to disk when there are too many lines in memory.
+     * <p>
+     * Only last used lines (up to maxLinesInMemory) are kept in memory, other lines are kept in temporary file
+     * which is deleted when script is finished. Line fields are ordered as document columns.
+     * <p>
+     * Spilled lines keep copies of values: change of mutable value (list, map, date) made in place is kept only
+     * if value is put to line again. Values which can't be serialized (nested documents, closures) can't be put.
+     *
+     * @param maxLinesInMemory max number of lines kept in memory
+     * @return document
+     */
+    public GroovyMultilineDocument createSpillDocument(int maxLinesInMemory) {
+        final GroovyMultilineDocumentSpillStorage storage = new GroovyMultilineDocumentSpillStorage(maxLinesInMemory);
+        factory.registerAutoCloseable(storage);
+        return new GroovyMultilineDocument(factory, storage);
+    }
+
+    /**
+     * Create document whose lines are spilled to disk when there are more than 1000000 lines in memory
+     *
+     * @return document
+     */
+    public GroovyMultilineDocument createSpillDocument() {
+        return createSpillDocument(DEFAULT_MAX_LINES_IN_MEMORY);
+    }
+
     public GroovyDocumentFactory(Factory factory) {
         this.factory = factory;
     }
@@ -5,8 +5,10 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import gscript.Factory;
 import gscript.GroovyException;
+import groovy.lang.Closure;
 import org.joda.time.DateTime;
 
+import java.io.Writer;
 import java.util.*;
 
 /**
@@ -18,9 +20,15 @@ import java.util.*;
 public final class GroovyMultilineDocument extends LinkedHashMap<String, Object> {
 
     private final Factory factory;
+    private final GroovyMultilineDocumentStorage storage;
 
     public GroovyMultilineDocument(Factory factory) {
+        this(factory, new GroovyMultilineDocumentRowStorage());
+    }
+
+    GroovyMultilineDocument(Factory factory, GroovyMultilineDocumentStorage storage) {
         this.factory = factory;
+        this.storage = storage;
     }
 
     private final LinkedHashMap<String, Column> columns = new LinkedHashMap<>();
@@ -29,12 +37,21 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
      * Column definition
      */
     public final class Column {
+        private int index;
+        private boolean castOnRead;
         private String name;
         private String title;
         private Class javaClass;
         private Integer size;
         private Integer scale;
 
+        /**
+         * @return ordinal of column in document
+         */
+        public int getIndex() {
+            return index;
+        }
+
         public String getName() {
             return name;
         }
@@ -82,12 +99,199 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
         }
     }
 
+    /**
+     * Type of documents join
+     */
+    public enum JoinType {
+        /**
+         * Only lines with pair
+         */
+        INNER,
+        /**
+         * All lines of left document
+         */
+        LEFT,
+        /**
+         * All lines of right document
+         */
+        RIGHT,
+        /**
+         * All lines of both documents
+         */
+        FULL
+    }
+
     private final List<Line> lines = new ArrayList<>();
+    private final Map<String, GroovyMultilineDocumentIndex> indexes = new HashMap<>();
+    private final Map<String, GroovyMultilineDocumentSortedIndex> sortedIndexes = new HashMap<>();
+    private final Map<String, GroovyMultilineDocumentTextIndex> textIndexes = new HashMap<>();
+    private final Map<String, GroovyMultilineDocumentColumnStats> columnStats = new HashMap<>();
 
     /**
      * Document line. Provides auto creation column definitions.
+     * <p>
+     * Line is a view over the document storage row, values are kept by the document storage.
+     * Line fields are ordered as they were put (lines of columnar and spill documents order fields as document columns).
      */
-    public final class Line extends LinkedHashMap<String, Object> {
+    public final class Line extends AbstractMap<String, Object> {
+
+        private final int row;
+
+        private Line(int row) {
+            this.row = row;
+        }
+
+        int getRow() {
+            return row;
+        }
+
+        /**
+         * @return document of this line
+         */
+        public GroovyMultilineDocument getDocument() {
+            return GroovyMultilineDocument.this;
+        }
+
+        @Override
+        public Object get(Object key) {
+            final Column column = columns.get(key);
+            return column != null ? getValue(column) : null;
+        }
+
+        Object getValue(Column column) {
+            final Object value = storage.get(row, column);
+
+            // column was widened after value was put (cast value is not stored, so reads don't modify storage)
+            if (column.castOnRead)
+                return castValue(column, value);
+
+            return value;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            final Column column = columns.get(key);
+            return column != null && storage.contains(row, column);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            final Column column = columns.get(key);
+            if (column == null)
+                return null;
+
+            final Object value = getValue(column);
+            final boolean contained = storage.contains(row, column);
+            storage.remove(row, column);
+
+            final GroovyMultilineDocumentIndex index = indexes.get(column.getName());
+            if (index != null && contained)
+                index.remove(row, value);
+
+            final GroovyMultilineDocumentTextIndex textIndex = textIndexes.get(column.getName());
+            if (textIndex != null)
+                textIndex.remove(row, value);
+
+            final GroovyMultilineDocumentColumnStats stats = columnStats.get(column.getName());
+            if (stats != null && contained) {
+                if (value == null)
+                    stats.removeNull();
+                else
+                    stats.invalidate();
+            }
+
+            invalidateSortedIndex(column);
+
+            return value;
+        }
+
+        @Override
+        public int size() {
+            return storage.size(row);
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    final Iterator<Column> iterator = storage.columns(row);
+
+                    return new Iterator<Entry<String, Object>>() {
+                        private Column current;
+
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            current = iterator.next();
+                            return new LineEntry(current.getName());
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (current == null)
+                                throw new IllegalStateException();
+
+                            Line.this.remove(current.getName());
+                            current = null;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return Line.this.size();
+                }
+            };
+        }
+
+        private final class LineEntry implements Entry<String, Object> {
+            private final String key;
+
+            private LineEntry(String key) {
+                this.key = key;
+            }
+
+            @Override
+            public String getKey() {
+                return key;
+            }
+
+            @Override
+            public Object getValue() {
+                return get(key);
+            }
+
+            @Override
+            public Object setValue(Object value) {
+                return put(key, value);
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof Entry))
+                    return false;
+
+                final Entry entry = (Entry) o;
+                final Object value = getValue();
+                return key.equals(entry.getKey()) && (value == null ? entry.getValue() == null : value.equals(entry.getValue()));
+            }
+
+            @Override
+            public int hashCode() {
+                final Object value = getValue();
+                return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+            }
+
+            @Override
+            public String toString() {
+                return key + "=" + getValue();
+            }
+        }
 
         @Override
         public Object put(String key, Object value) {
@@ -101,7 +305,7 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
                 if (value != null)
                     column.setJavaClass(value.getClass());
 
-                columns.put(key, column);
+                addColumn(column);
             } else {
                 if (column.getJavaClass() == null && value != null) {
                     column.setJavaClass(value.getClass());
@@ -111,23 +315,65 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
                     final Class extendedClass = GroovyUtil.getExtendedClass(column.getJavaClass(), value.getClass());
 
                     final Class oldColumnClass = column.getJavaClass();
-                    column.setJavaClass(extendedClass);
 
                     if (!extendedClass.equals(Object.class)) {
+                        column.setJavaClass(extendedClass);
+
                         try {
                             if (oldColumnClass == extendedClass) {
                                 value = GroovyUtil.cast(value, extendedClass);
                             } else {
-                                recastColumnValues(key, extendedClass);
+                                // existing values are cast on read
+                                column.castOnRead = true;
+                                invalidateIndexes(column);
                             }
                         } catch (Throwable e) {
                             throw new RuntimeException(e);
                         }
+                    } else {
+                        // values of object column are not cast, so pending casts are done now (once per column)
+                        if (column.castOnRead) {
+                            recastColumnValues(column);
+                            invalidateIndexes(column);
+                        }
+
+                        column.setJavaClass(extendedClass);
                     }
                 }
             }
 
-            return super.put(key, value);
+            final GroovyMultilineDocumentIndex index = indexes.isEmpty() ? null : indexes.get(key);
+            final GroovyMultilineDocumentColumnStats stats = columnStats.isEmpty() ? null : columnStats.get(key);
+            final boolean contained = (index != null || stats != null) && storage.contains(row, column);
+            final Object oldValue = storage.set(row, column, value);
+
+            if (index != null) {
+                if (contained)
+                    index.remove(row, oldValue);
+
+                index.add(row, value);
+            }
+
+            final GroovyMultilineDocumentTextIndex textIndex = textIndexes.isEmpty() ? null : textIndexes.get(key);
+            if (textIndex != null) {
+                textIndex.remove(row, oldValue);
+                textIndex.add(row, value);
+            }
+
+            if (stats != null) {
+                if (!contained) {
+                    stats.add(value);
+                } else if (oldValue == null) {
+                    stats.removeNull();
+                    stats.add(value);
+                } else if (!oldValue.equals(value)) {
+                    stats.invalidate();
+                }
+            }
+
+            invalidateSortedIndex(column);
+
+            return oldValue;
         }
     }
 
@@ -138,12 +384,39 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
         return columns;
     }
 
-    private void recastColumnValues(String columnName, Class toClass) throws Exception {
+    /**
+     * @return value cast to class of widened column
+     */
+    private static Object castValue(Column column, Object value) {
+        if (value == null || value.getClass() == column.getJavaClass())
+            return value;
+
+        try {
+            return GroovyUtil.cast(value, column.getJavaClass());
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void recastColumnValues(Column column) {
         for (Line line : lines) {
-            Object value = line.get(columnName);
-            if (value != null)
-                line.put(columnName, GroovyUtil.cast(value, toClass));
+            final Object value = storage.get(line.row, column);
+            final Object castValue = castValue(column, value);
+
+            if (castValue != value)
+                storage.set(line.row, column, castValue);
         }
+
+        column.castOnRead = false;
+    }
+
+    /**
+     * Cast and store values of widened columns now (otherwise values are cast on every read)
+     */
+    public void castPendingValues() {
+        for (Column column : columns.values())
+            if (column.castOnRead)
+                recastColumnValues(column);
     }
 
     /**
@@ -153,15 +426,24 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
         return size();
     }
 
+    private void addColumn(Column column) {
+        column.index = columns.size();
+        columns.put(column.getName(), column);
+    }
+
     public void createColumn(String columnName, String columnTitle, Class columnClass, Integer columnSize, Integer columnScale) {
-        final Column column = new Column();
-        column.setName(columnName);
+        // existing column definition is redefined in place (lines refer to it)
+        Column column = columns.get(columnName);
+        if (column == null) {
+            column = new Column();
+            column.setName(columnName);
+            addColumn(column);
+        }
+
         column.setJavaClass(columnClass);
         column.setTitle(columnTitle);
         column.setSize(columnSize);
         column.setScale(columnScale);
-
-        columns.put(columnName, column);
     }
 
     /**
@@ -308,6 +590,29 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
         return lines;
     }
 
+    /**
+     * Get document lines by storage rows
+     *
+     * @param rows sorted row numbers
+     * @return lines in document order, or null if document lines were reordered or removed
+     */
+    public List<Line> getLines(int[] rows) {
+        final List<Line> result = new ArrayList<>(rows.length);
+
+        for (int row : rows) {
+            if (row >= lines.size() || lines.get(row).row != row)
+                return null;
+
+            result.add(lines.get(row));
+        }
+
+        return result;
+    }
+
+    int getRowCount() {
+        return storage.getRowCount();
+    }
+
     /**
      * @return document lines count
      */
@@ -320,11 +625,228 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
      * @return created line
      */
     public Line createLine() {
-        final Line line = new Line();
+        for (GroovyMultilineDocumentSortedIndex index : sortedIndexes.values())
+            index.invalidate();
+
+        final Line line = new Line(storage.createRow());
         lines.add(line);
         return line;
     }
 
+    /**
+     * Create hash index on column. Index is used by equals and in criteria of document queries
+     * and maintained when line values are put.
+     *
+     * @param columnName column name
+     * @return index
+     */
+    public GroovyMultilineDocumentIndex createIndex(String columnName) {
+        GroovyMultilineDocumentIndex index = indexes.get(columnName);
+        if (index == null) {
+            index = new GroovyMultilineDocumentIndex(this, columnName);
+            index.build();
+            indexes.put(columnName, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Delete index on column
+     *
+     * @param columnName column name
+     */
+    public void dropIndex(String columnName) {
+        indexes.remove(columnName);
+    }
+
+    /**
+     * Get hash index on column
+     *
+     * @param columnName column name
+     * @return index or null if index was not created
+     */
+    public GroovyMultilineDocumentIndex getIndex(String columnName) {
+        return indexes.get(columnName);
+    }
+
+    /**
+     * Create sorted index on column. Index is used by between, more and less criteria
+     * and by ordering of document queries. Index is rebuilt on first use after lines were changed.
+     *
+     * @param columnName column name
+     * @return index
+     */
+    public GroovyMultilineDocumentSortedIndex createSortedIndex(String columnName) {
+        GroovyMultilineDocumentSortedIndex index = sortedIndexes.get(columnName);
+        if (index == null) {
+            index = new GroovyMultilineDocumentSortedIndex(this, columnName);
+            index.build();
+            sortedIndexes.put(columnName, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Delete sorted index on column
+     *
+     * @param columnName column name
+     */
+    public void dropSortedIndex(String columnName) {
+        sortedIndexes.remove(columnName);
+    }
+
+    /**
+     * Get sorted index on column
+     *
+     * @param columnName column name
+     * @return index or null if index was not created
+     */
+    public GroovyMultilineDocumentSortedIndex getSortedIndex(String columnName) {
+        return sortedIndexes.get(columnName);
+    }
+
+    /**
+     * Create text index on column. Index is used by contains, startsWith and like criteria
+     * of document queries and maintained when line values are put.
+     *
+     * @param columnName column name
+     * @return index
+     */
+    public GroovyMultilineDocumentTextIndex createTextIndex(String columnName) {
+        GroovyMultilineDocumentTextIndex index = textIndexes.get(columnName);
+        if (index == null) {
+            index = new GroovyMultilineDocumentTextIndex(this, columnName);
+            index.build();
+            textIndexes.put(columnName, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Delete text index on column
+     *
+     * @param columnName column name
+     */
+    public void dropTextIndex(String columnName) {
+        textIndexes.remove(columnName);
+    }
+
+    /**
+     * Get text index on column
+     *
+     * @param columnName column name
+     * @return index or null if index was not created
+     */
+    public GroovyMultilineDocumentTextIndex getTextIndex(String columnName) {
+        return textIndexes.get(columnName);
+    }
+
+    /**
+     * Collect statistics of column values (min, max, null count, approximate distinct count).
+     * Statistics are maintained when line values are put and are used by document queries
+     * to skip criteria which can't match and to check the most selective criteria first,
+     * by grouping and joining to size hash tables.
+     *
+     * @param columnName column name
+     * @return statistics
+     */
+    public GroovyMultilineDocumentColumnStats createColumnStats(String columnName) {
+        GroovyMultilineDocumentColumnStats stats = columnStats.get(columnName);
+        if (stats == null) {
+            stats = new GroovyMultilineDocumentColumnStats(this, columnName);
+            stats.build();
+            columnStats.put(columnName, stats);
+        }
+
+        return stats;
+    }
+
+    /**
+     * Stop collecting statistics of column values
+     *
+     * @param columnName column name
+     */
+    public void dropColumnStats(String columnName) {
+        columnStats.remove(columnName);
+    }
+
+    /**
+     * Get statistics of column values
+     *
+     * @param columnName column name
+     * @return statistics or null if statistics were not created
+     */
+    public GroovyMultilineDocumentColumnStats getColumnStats(String columnName) {
+        return columnStats.get(columnName);
+    }
+
+    /**
+     * Group document lines by key columns, for example:
+     * <pre>
+     * document.groupBy("STORE", "PRODUCT").sum("AMOUNT").count().avg("PRICE").toDocument()
+     * </pre>
+     *
+     * @param columnNames key column names
+     * @return aggregation builder
+     */
+    public GroovyMultilineDocumentGroupBy groupBy(String... columnNames) {
+        return new GroovyMultilineDocumentGroupBy(this, factory, columnNames);
+    }
+
+    /**
+     * Join lines of other document with equal key values (hash join).
+     * Right document columns which have the same names as this document columns are prefixed by "RIGHT_".
+     *
+     * @param other           right document
+     * @param leftColumnName  key column of this document
+     * @param rightColumnName key column of right document
+     * @param joinType        join type
+     * @return new document with columns of both documents
+     */
+    public GroovyMultilineDocument join(GroovyMultilineDocument other, String leftColumnName, String rightColumnName, JoinType joinType) {
+        return new GroovyMultilineDocumentJoin(this, other, joinType).join(factory, leftColumnName, rightColumnName, null);
+    }
+
+    /**
+     * Join lines of other document with equal key values (hash join)
+     *
+     * @param other           right document
+     * @param leftColumnName  key column of this document
+     * @param rightColumnName key column of right document
+     * @param joinType        join type
+     * @param rightPrefix     prefix of right document column names
+     * @return new document with columns of both documents
+     */
+    public GroovyMultilineDocument join(GroovyMultilineDocument other, String leftColumnName, String rightColumnName, JoinType joinType,
+                                        String rightPrefix) {
+        return new GroovyMultilineDocumentJoin(this, other, joinType).join(factory, leftColumnName, rightColumnName, rightPrefix);
+    }
+
+    private void invalidateIndexes(Column column) {
+        final GroovyMultilineDocumentIndex index = indexes.get(column.getName());
+        if (index != null)
+            index.invalidate();
+
+        final GroovyMultilineDocumentTextIndex textIndex = textIndexes.get(column.getName());
+        if (textIndex != null)
+            textIndex.invalidate();
+
+        final GroovyMultilineDocumentColumnStats stats = columnStats.get(column.getName());
+        if (stats != null)
+            stats.invalidate();
+    }
+
+    private void invalidateSortedIndex(Column column) {
+        if (!sortedIndexes.isEmpty()) {
+            final GroovyMultilineDocumentSortedIndex index = sortedIndexes.get(column.getName());
+            if (index != null)
+                index.invalidate();
+        }
+    }
+
     /**
      * Export document to JSON object
      * @return json
@@ -380,6 +902,74 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
         return new GsonBuilder().setPrettyPrinting().create().toJson(toJSON());
     }
 
+    /**
+     * Export document to JSON file (UTF-8) without building JSON tree in memory
+     *
+     * @param file file or filename
+     */
+    public void saveToJSON(Object file) {
+        saveToJSON(file, false);
+    }
+
+    /**
+     * Export document to JSON file (UTF-8) without building JSON tree in memory
+     *
+     * @param file   file or filename
+     * @param ndjson write one line object per text line (head values are not written)
+     */
+    public void saveToJSON(Object file, boolean ndjson) {
+        new GroovyMultilineDocumentJSONSerializer(factory).saveToFile(this, factory.file.getFile(file), ndjson);
+    }
+
+    /**
+     * Write document as JSON to writer (writer is not closed)
+     *
+     * @param writer writer
+     */
+    public void writeJSON(Writer writer) {
+        writeJSON(writer, false);
+    }
+
+    /**
+     * Write document as JSON to writer (writer is not closed)
+     *
+     * @param writer writer
+     * @param ndjson write one line object per text line (head values are not written)
+     */
+    public void writeJSON(Writer writer, boolean ndjson) {
+        new GroovyMultilineDocumentJSONSerializer(factory).write(this, writer, ndjson);
+    }
+
+    /**
+     * Import document from JSON file (format of saveToJSON)
+     *
+     * @param file file or filename
+     */
+    public void loadFromJSON(Object file) {
+        loadFromJSON(file, false);
+    }
+
+    /**
+     * Import document from JSON file
+     *
+     * @param file   file or filename
+     * @param ndjson file contains one line object per text line
+     */
+    public void loadFromJSON(Object file, boolean ndjson) {
+        new GroovyMultilineDocumentJSONSerializer(factory).loadFromFile(this, factory.file.getFile(file), ndjson);
+    }
+
+    /**
+     * Read lines of JSON file one by one without adding them to document (head values are added)
+     *
+     * @param file    file or filename
+     * @param ndjson  file contains one line object per text line
+     * @param closure closure with line parameter (map of line values)
+     */
+    public void loadFromJSON(Object file, boolean ndjson, Closure closure) {
+        new GroovyMultilineDocumentJSONSerializer(factory).loadFromFile(this, factory.file.getFile(file), ndjson, closure);
+    }
+
     /**
      * Print document to stdout (JSON format)
      */
@@ -396,6 +986,16 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
         new GroovyMultilineDocumentXMLSerializer(factory).saveToFile(this, factory.file.getFile(file));
     }
 
+    /**
+     * Export document to XML file
+     *
+     * @param file file or filename
+     * @param gzip compress file by gzip (compressed file is loaded by loadFromXML as well)
+     */
+    public void saveToXML(Object file, boolean gzip) {
+        new GroovyMultilineDocumentXMLSerializer(factory).saveToFile(this, factory.file.getFile(file), gzip);
+    }
+
     /**
      * Import document from XML file
      *
@@ -405,6 +1005,16 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
         new GroovyMultilineDocumentXMLSerializer(factory).loadFromFile(this, factory.file.getFile(file));
     }
 
+    /**
+     * Read lines of XML file one by one without adding them to document (head values are added)
+     *
+     * @param file    file or filename
+     * @param closure closure with line parameter (map of line values)
+     */
+    public void loadFromXML(Object file, Closure closure) {
+        new GroovyMultilineDocumentXMLSerializer(factory).loadFromFile(this, factory.file.getFile(file), closure);
+    }
+
     /**
      * Export document to DBF (DBase format) file
      *
@@ -414,6 +1024,17 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
         new GroovyMultilineDocumentDBFSerializer(factory).saveToFile(this, factory.file.getFile(file), encoding);
     }
 
+    /**
+     * Export document to DBF (DBase format) file
+     *
+     * @param file      file or filename
+     * @param fitFields compute minimal sizes of numeric and string fields from values of lines
+     *                  (columns with defined size or column statistics don't need it)
+     */
+    public void saveToDBF(Object file, String encoding, boolean fitFields) {
+        new GroovyMultilineDocumentDBFSerializer(factory).saveToFile(this, factory.file.getFile(file), encoding, fitFields);
+    }
+
     /**
      * Import document from DBF (DBase format) file
      *
@@ -441,6 +1062,44 @@ public final class GroovyMultilineDocument extends LinkedHashMap<String, Object>
         new GroovyMultilineDocumentCSVSerializer(factory).loadFromFile(this, factory.file.getFile(file), encoding);
     }
 
+    /**
+     * Export document to binary columnar file (fastest to load back)
+     *
+     * @param file file or filename
+     */
+    public void saveToBinary(Object file) {
+        saveToBinary(file, false);
+    }
+
+    /**
+     * Export document to binary columnar file
+     *
+     * @param file     file or filename
+     * @param compress compress column values (smaller file, slower load)
+     */
+    public void saveToBinary(Object file, boolean compress) {
+        new GroovyMultilineDocumentBinarySerializer(factory).saveToFile(this, factory.file.getFile(file), compress);
+    }
+
+    /**
+     * Import document from binary columnar file
+     *
+     * @param file file or filename
+     */
+    public void loadFromBinary(Object file) {
+        new GroovyMultilineDocumentBinarySerializer(factory).loadFromFile(this, factory.file.getFile(file));
+    }
+
+    /**
+     * Import some columns of document from binary columnar file (other columns are not read)
+     *
+     * @param file        file or filename
+     * @param columnNames names of loaded columns
+     */
+    public void loadFromBinary(Object file, String... columnNames) {
+        new GroovyMultilineDocumentBinarySerializer(factory).loadFromFile(this, factory.file.getFile(file), columnNames);
+    }
+
     /**
      * Assert document equals
      */
@@ -0,0 +1,475 @@
+package gscript.factory.document;
+
+import gscript.Factory;
+import gscript.GroovyException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Columnar binary document file.
+ * <p>
+ * File contains blocks of column values (optionally deflated) followed by directory: head values,
+ * column definitions with offsets of their blocks and lines count. Values are typed and length-prefixed,
+ * so nothing is parsed from text on load. Only requested columns are read.
+ * <p>
+ * Column is split into blocks of consecutive lines (up to BLOCK_LINES lines and about BLOCK_BYTES bytes),
+ * so only one block is kept in memory while it is written or read. Blocks are read by positional reads
+ * into heap buffers (file is not memory mapped, so it can be replaced or deleted right after loading).
+ * <pre>
+ * magic, version, compression
+ * column blocks
+ * directory
+ * directory offset (last 8 bytes)
+ * </pre>
+ */
+public final class GroovyMultilineDocumentBinarySerializer {
+
+    private static final int MAGIC = 0x47534442;
+    private static final short VERSION = 2;
+
+    private static final byte NOT_COMPRESSED = 0;
+    private static final byte DEFLATE = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Max number of lines and estimated size of column block
+     */
+    private static final int BLOCK_LINES = 1 << 13;
+    private static final int BLOCK_BYTES = 1 << 22;
+
+    /**
+     * States of column value in line
+     */
+    private static final byte NOT_PUT = 0;
+    private static final byte NULL = 1;
+    private static final byte VALUE = 2;
+
+    /**
+     * Block encodings besides value tags (values of one class are written without tags)
+     */
+    private static final byte MIXED = 0;
+    private static final byte STRING_DICTIONARY = -1;
+
+    private final Factory factory;
+
+    public GroovyMultilineDocumentBinarySerializer(Factory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Save document to binary file
+     *
+     * @param compress deflate column blocks
+     */
+    public void saveToFile(GroovyMultilineDocument doc, File file, boolean compress) {
+        final List<GroovyMultilineDocument.Line> lines = doc.getLines();
+        final Collection<GroovyMultilineDocument.Column> columns = doc.getColumns().values();
+
+        try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+            final DataOutputStream out = new DataOutputStream(counter);
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeByte(compress ? DEFLATE : NOT_COMPRESSED);
+
+            final List<List<ColumnBlock>> columnBlocks = new ArrayList<>();
+
+            // raw block is encoded into reused buffer and written (or deflated) to file
+            final BlockBuffer raw = new BlockBuffer();
+            final DataOutputStream rawOut = new DataOutputStream(raw);
+            final Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+            final byte[] deflated = compress ? new byte[BUFFER_SIZE] : null;
+
+            try {
+                for (GroovyMultilineDocument.Column column : columns) {
+                    final List<ColumnBlock> blocks = new ArrayList<>();
+
+                    int firstLine = 0;
+                    while (firstLine < lines.size()) {
+                        raw.reset();
+
+                        final ColumnBlock block = new ColumnBlock();
+                        block.lineCount = encodeBlock(rawOut, lines, firstLine, column);
+                        block.offset = counter.count;
+                        block.rawLength = raw.size();
+
+                        if (deflater != null) {
+                            deflater.reset();
+                            deflater.setInput(raw.getBuffer(), 0, raw.size());
+                            deflater.finish();
+
+                            while (!deflater.finished())
+                                out.write(deflated, 0, deflater.deflate(deflated));
+                        } else {
+                            raw.writeTo(out);
+                        }
+
+                        block.storedLength = (int) (counter.count - block.offset);
+                        blocks.add(block);
+                        firstLine += block.lineCount;
+                    }
+
+                    columnBlocks.add(blocks);
+                }
+            } finally {
+                if (deflater != null)
+                    deflater.end();
+            }
+
+            final long directoryOffset = counter.count;
+
+            // directory
+            out.writeInt(doc.size());
+            for (Map.Entry<String, Object> entry : doc.entrySet()) {
+                out.writeUTF(entry.getKey());
+                GroovyMultilineDocumentValueCodec.write(out, entry.getValue());
+            }
+
+            out.writeInt(columns.size());
+            int c = 0;
+            for (GroovyMultilineDocument.Column column : columns) {
+                out.writeUTF(column.getName());
+                writeNullableString(out, column.getTitle());
+                writeNullableString(out, column.getJavaClass() != null ? column.getJavaClass().getName() : null);
+                out.writeInt(column.getSize() != null ? column.getSize() : -1);
+                out.writeInt(column.getScale() != null ? column.getScale() : -1);
+
+                final List<ColumnBlock> blocks = columnBlocks.get(c++);
+                out.writeInt(blocks.size());
+                for (ColumnBlock block : blocks) {
+                    out.writeInt(block.lineCount);
+                    out.writeLong(block.offset);
+                    out.writeInt(block.storedLength);
+                    out.writeInt(block.rawLength);
+                }
+            }
+
+            out.writeInt(lines.size());
+            out.writeLong(directoryOffset);
+        } catch (Exception e) {
+            throw new GroovyException("Binary serialization error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Load lines and head values from binary file
+     *
+     * @param columnNames names of loaded columns (empty - all columns)
+     */
+    public void loadFromFile(GroovyMultilineDocument doc, File file, String... columnNames) {
+        final Set<String> projection = columnNames.length > 0 ? new HashSet<>(Arrays.asList(columnNames)) : null;
+
+        try (RandomAccessFile access = new RandomAccessFile(file, "r");
+             FileChannel channel = access.getChannel()) {
+
+            final long fileLength = channel.size();
+            if (fileLength < 15)
+                throw new GroovyException("File " + file + " is not a binary document");
+
+            final ByteBuffer header = read(channel, 0, 7);
+            if (header.getInt() != MAGIC)
+                throw new GroovyException("File " + file + " is not a binary document");
+
+            final short version = header.getShort();
+            if (version != VERSION)
+                throw new GroovyException("Unsupported binary document version " + version);
+
+            final boolean compressed = header.get() == DEFLATE;
+
+            final long directoryOffset = read(channel, fileLength - 8, 8).getLong();
+            if (directoryOffset < 7 || directoryOffset > fileLength - 8)
+                throw new GroovyException("File " + file + " is corrupted");
+
+            final ByteBuffer directory = read(channel, directoryOffset, (int) (fileLength - 8 - directoryOffset));
+
+            final int headCount = directory.getInt();
+            for (int i = 0; i < headCount; i++) {
+                final String name = readUTF(directory);
+                doc.put(name, GroovyMultilineDocumentValueCodec.read(directory));
+            }
+
+            final int columnCount = directory.getInt();
+            final List<ColumnDefinition> definitions = new ArrayList<>();
+            for (int i = 0; i < columnCount; i++) {
+                final ColumnDefinition definition = new ColumnDefinition();
+                definition.name = readUTF(directory);
+                definition.title = readNullableString(directory);
+                definition.className = readNullableString(directory);
+                definition.size = directory.getInt();
+                definition.scale = directory.getInt();
+
+                final int blockCount = directory.getInt();
+                for (int j = 0; j < blockCount; j++) {
+                    final ColumnBlock block = new ColumnBlock();
+                    block.lineCount = directory.getInt();
+                    block.offset = directory.getLong();
+                    block.storedLength = directory.getInt();
+                    block.rawLength = directory.getInt();
+                    definition.blocks.add(block);
+                }
+
+                if (projection == null || projection.contains(definition.name))
+                    definitions.add(definition);
+            }
+
+            final int lineCount = directory.getInt();
+
+            for (ColumnDefinition definition : definitions)
+                doc.createColumn(definition.name, definition.title, definition.className != null ? Class.forName(definition.className) : null,
+                        definition.size >= 0 ? definition.size : null, definition.scale >= 0 ? definition.scale : null);
+
+            final int firstLine = doc.getLinesCount();
+            for (int i = 0; i < lineCount; i++)
+                doc.createLine();
+
+            final List<GroovyMultilineDocument.Line> lines = doc.getLines().subList(firstLine, firstLine + lineCount);
+
+            final Inflater inflater = compressed ? new Inflater() : null;
+            try {
+                for (ColumnDefinition definition : definitions) {
+                    int blockLine = 0;
+                    for (ColumnBlock block : definition.blocks) {
+                        if (blockLine + block.lineCount > lineCount)
+                            throw new GroovyException("File " + file + " is corrupted");
+
+                        ByteBuffer buffer = read(channel, block.offset, block.storedLength);
+                        if (inflater != null)
+                            buffer = inflate(inflater, buffer, block.rawLength);
+
+                        decodeColumn(buffer, lines.subList(blockLine, blockLine + block.lineCount), definition.name);
+                        blockLine += block.lineCount;
+                    }
+                }
+            } finally {
+                if (inflater != null)
+                    inflater.end();
+            }
+        } catch (GroovyException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new GroovyException("Binary load error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read part of file into heap buffer
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            final int count = channel.read(buffer, position);
+            if (count < 0)
+                throw new EOFException();
+
+            position += count;
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Column block: encoding, states of values in lines, values
+     *
+     * @return number of lines in block
+     */
+    private static int encodeBlock(DataOutputStream out, List<GroovyMultilineDocument.Line> lines, int firstLine,
+                                   GroovyMultilineDocument.Column column) throws IOException {
+        final String name = column.getName();
+        final byte[] states = new byte[Math.min(BLOCK_LINES, lines.size() - firstLine)];
+        final List<Object> values = new ArrayList<>();
+
+        byte tag = -1;
+        boolean mixed = false;
+        long estimatedSize = 0;
+
+        int lineCount = 0;
+        while (lineCount < states.length && estimatedSize < BLOCK_BYTES) {
+            final GroovyMultilineDocument.Line line = lines.get(firstLine + lineCount++);
+            if (!line.containsKey(name))
+                continue;
+
+            final Object value = line.getValue(column);
+            if (value == null) {
+                states[lineCount - 1] = NULL;
+                continue;
+            }
+
+            states[lineCount - 1] = VALUE;
+            values.add(value);
+            estimatedSize += value instanceof String ? 4 + 3L * ((String) value).length() : 16;
+
+            final byte valueTag = GroovyMultilineDocumentValueCodec.getTag(value);
+            if (tag == -1)
+                tag = valueTag;
+            else if (tag != valueTag)
+                mixed = true;
+        }
+
+        byte encoding = mixed || tag == -1 || tag == GroovyMultilineDocumentValueCodec.SERIALIZABLE ? MIXED : tag;
+
+        // repeated strings are written once
+        Map<Object, Integer> dictionary = null;
+        if (encoding == GroovyMultilineDocumentValueCodec.STRING) {
+            dictionary = new LinkedHashMap<>();
+            for (Object value : values) {
+                if (!dictionary.containsKey(value))
+                    dictionary.put(value, dictionary.size());
+
+                if (dictionary.size() * 2 > values.size())
+                    break;
+            }
+
+            if (dictionary.size() * 2 <= values.size())
+                encoding = STRING_DICTIONARY;
+            else
+                dictionary = null;
+        }
+
+        out.writeByte(encoding);
+        out.write(states, 0, lineCount);
+
+        if (dictionary != null) {
+            out.writeInt(dictionary.size());
+            for (Object value : dictionary.keySet())
+                GroovyMultilineDocumentValueCodec.writeUntagged(out, GroovyMultilineDocumentValueCodec.STRING, value);
+
+            for (Object value : values)
+                out.writeInt(dictionary.get(value));
+        } else if (encoding == MIXED) {
+            for (Object value : values)
+                GroovyMultilineDocumentValueCodec.write(out, value);
+        } else {
+            for (Object value : values)
+                GroovyMultilineDocumentValueCodec.writeUntagged(out, encoding, value);
+        }
+
+        out.flush();
+        return lineCount;
+    }
+
+    private static void decodeColumn(ByteBuffer in, List<GroovyMultilineDocument.Line> lines, String name) throws IOException {
+        final byte encoding = in.get();
+
+        final byte[] states = new byte[lines.size()];
+        in.get(states);
+
+        String[] dictionary = null;
+        if (encoding == STRING_DICTIONARY) {
+            dictionary = new String[in.getInt()];
+            for (int i = 0; i < dictionary.length; i++)
+                dictionary[i] = (String) GroovyMultilineDocumentValueCodec.readUntagged(in, GroovyMultilineDocumentValueCodec.STRING);
+        }
+
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == NOT_PUT)
+                continue;
+
+            final Object value;
+            if (states[i] == NULL)
+                value = null;
+            else if (dictionary != null)
+                value = dictionary[in.getInt()];
+            else if (encoding == MIXED)
+                value = GroovyMultilineDocumentValueCodec.read(in);
+            else
+                value = GroovyMultilineDocumentValueCodec.readUntagged(in, encoding);
+
+            lines.get(i).put(name, value);
+        }
+    }
+
+    private static ByteBuffer inflate(Inflater inflater, ByteBuffer stored, int rawLength) throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(stored.array(), stored.arrayOffset() + stored.position(), stored.remaining());
+
+        final byte[] raw = new byte[rawLength];
+        int length = 0;
+        while (length < rawLength) {
+            final int count = inflater.inflate(raw, length, rawLength - length);
+            if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                throw new DataFormatException("Column block is truncated or corrupted");
+
+            length += count;
+        }
+
+        return ByteBuffer.wrap(raw);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    private static String readNullableString(ByteBuffer in) throws IOException {
+        return in.get() != 0 ? readUTF(in) : null;
+    }
+
+    /**
+     * Read string written by DataOutput.writeUTF
+     */
+    private static String readUTF(ByteBuffer in) throws IOException {
+        final byte[] bytes = new byte[2 + (in.getShort(in.position()) & 0xFFFF)];
+        in.get(bytes);
+        return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+    }
+
+    private static final class ColumnDefinition {
+        private String name;
+        private String title;
+        private String className;
+        private int size;
+        private int scale;
+        private final List<ColumnBlock> blocks = new ArrayList<>();
+    }
+
+    private static final class ColumnBlock {
+        private int lineCount;
+        private long offset;
+        private int storedLength;
+        private int rawLength;
+    }
+
+    /**
+     * Buffer of encoded block (its bytes are deflated without copying)
+     */
+    private static final class BlockBuffer extends ByteArrayOutputStream {
+        BlockBuffer() {
+            super(BUFFER_SIZE);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * Stream which counts written bytes (offsets of blocks)
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
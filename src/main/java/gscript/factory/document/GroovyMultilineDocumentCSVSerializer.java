@@ -9,61 +9,21 @@ import org.apache.commons.csv.CSVRecord;
 import org.joda.time.DateTime;
 
 import java.io.*;
-import java.math.BigDecimal;
 import java.util.*;
-import java.util.regex.Matcher;
 
 public final class GroovyMultilineDocumentCSVSerializer {
 
+    /**
+     * Number of first records whose values define column types
+     */
+    private static final int SAMPLE_SIZE = 1000;
+
     private final Factory factory;
 
     public GroovyMultilineDocumentCSVSerializer(Factory factory) {
         this.factory = factory;
     }
 
-    private Object parseObject(String objectAsString) {
-        if (objectAsString == null)
-            return null;
-
-        // match datetime
-        final Matcher cdataMatcher = RegExp.CDATA_PATTERN.matcher(objectAsString);
-        if (cdataMatcher.find())
-            return cdataMatcher.group(1);
-
-        // match datetime
-        final Matcher dateTimeMatcher = RegExp.DATETIME_PATTERN.matcher(objectAsString);
-        if (dateTimeMatcher.find())
-            return factory.date.createDate(dateTimeMatcher.group(3), dateTimeMatcher.group(2), dateTimeMatcher.group(1), dateTimeMatcher.group(4), dateTimeMatcher.group(5), dateTimeMatcher.group(6));
-
-        // match date
-        final Matcher dateMatcher = RegExp.DATE_PATTERN.matcher(objectAsString);
-        if (dateMatcher.find())
-            return factory.date.createDate(dateMatcher.group(3), dateMatcher.group(2), dateMatcher.group(1));
-
-        // match decimal
-        final Matcher decimalMatcher = RegExp.DECIMAL_PATTERN.matcher(objectAsString);
-        if (decimalMatcher.find())
-            return new BigDecimal(Double.parseDouble(objectAsString)).setScale(2, BigDecimal.ROUND_HALF_UP);
-
-        // match int and long
-        final Matcher intMatcher = RegExp.INT_PATTERN.matcher(objectAsString);
-        if (intMatcher.find()) {
-            final Long asLong = Long.parseLong(objectAsString);
-
-            if (asLong > Integer.MAX_VALUE)
-                return asLong;
-            else
-                return asLong.intValue();
-        }
-
-        // match boolean
-        final Matcher boolMatcher = RegExp.BOOLEAN_PATTERN.matcher(objectAsString);
-        if (boolMatcher.find())
-            return Boolean.parseBoolean(boolMatcher.group(1));
-
-        return objectAsString;
-    }
-
     private String objectAsString(Object value) {
         if (value == null)
             return null;
@@ -126,6 +86,12 @@ public final class GroovyMultilineDocumentCSVSerializer {
         }
     }
 
+    private static void addLine(GroovyMultilineDocument doc, String[] columns, GroovyMultilineDocumentCSVValueParser[] parsers, CSVRecord record) {
+        final GroovyMultilineDocument.Line docLine = doc.createLine();
+        for (int i = 0; i < columns.length; i++)
+            docLine.put(columns[i], parsers[i].parse(record.get(i)));
+    }
+
     public void loadFromFile(final GroovyMultilineDocument doc, File file, String encoding) {
         String line;
         try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(file), encoding))) {
@@ -134,24 +100,41 @@ public final class GroovyMultilineDocumentCSVSerializer {
                 if ("".equals(line.trim())) {
                     final CSVParser csvParser = new CSVParser(bufferedReader, getCSVFormat());
 
-                    List<String> columns = null;
-                    for (CSVRecord record : csvParser) {
-                        if (columns == null) {
-                            columns = new ArrayList<>();
-                            for (int i = 0; i < record.size(); i++)
-                                columns.add(record.get(i));
-                        } else {
-                            final GroovyMultilineDocument.Line docLine = doc.createLine();
-                            for (int i = 0; i < columns.size(); i++)
-                                docLine.put(columns.get(i), parseObject(record.get(i)));
-                        }
+                    final Iterator<CSVRecord> records = csvParser.iterator();
+                    if (!records.hasNext())
+                        break;
+
+                    final CSVRecord header = records.next();
+                    final String[] columns = new String[header.size()];
+                    final GroovyMultilineDocumentCSVValueParser[] parsers = new GroovyMultilineDocumentCSVValueParser[columns.length];
+                    for (int i = 0; i < columns.length; i++) {
+                        columns[i] = header.get(i);
+                        parsers[i] = new GroovyMultilineDocumentCSVValueParser();
+                    }
+
+                    // column types are inferred from first records
+                    final List<CSVRecord> sample = new ArrayList<>(SAMPLE_SIZE);
+                    while (sample.size() < SAMPLE_SIZE && records.hasNext()) {
+                        final CSVRecord record = records.next();
+                        for (int i = 0; i < columns.length; i++)
+                            parsers[i].infer(record.get(i));
+
+                        sample.add(record);
                     }
 
+                    for (CSVRecord record : sample)
+                        addLine(doc, columns, parsers, record);
+
+                    sample.clear();
+
+                    while (records.hasNext())
+                        addLine(doc, columns, parsers, records.next());
+
                     break;
                 } else {
                     final int indexOfParameter = line.indexOf(": ");
                     if (indexOfParameter != -1)
-                        doc.put(line.substring(0, indexOfParameter), parseObject(line.substring(indexOfParameter + 2)));
+                        doc.put(line.substring(0, indexOfParameter), GroovyMultilineDocumentCSVValueParser.parseValue(line.substring(indexOfParameter + 2)));
                 }
             }
         } catch (Exception e) {
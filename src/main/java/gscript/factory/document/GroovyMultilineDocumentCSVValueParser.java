@@ -0,0 +1,330 @@
+package gscript.factory.document;
+
+import gscript.util.dictionary.StringDictionary;
+import org.joda.time.DateTime;
+import org.joda.time.IllegalFieldValueException;
+import org.joda.time.LocalDate;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.regex.Matcher;
+
+/**
+ * Parser of CSV column values.
+ * <p>
+ * Column type is inferred once from sample values, then values are parsed by hand-written parser of that type:
+ * integer numbers (Integer or Long), decimals (exact BigDecimal), dates (dd.MM.yyyy and dd.MM.yyyy HH:mm:ss),
+ * booleans and strings. Value which does not fit column type widens it (Integer - Long - BigDecimal,
+ * date - date with time, other types - String). Repeated string values share string instance.
+ */
+final class GroovyMultilineDocumentCSVValueParser {
+
+    static final int UNKNOWN = -1;
+    static final int INTEGER = 0;
+    static final int LONG = 1;
+    static final int DECIMAL = 2;
+    static final int DATE = 3;
+    static final int DATETIME = 4;
+    static final int BOOLEAN = 5;
+    static final int STRING = 6;
+
+    /**
+     * Marks value which can't be parsed as column type
+     */
+    private static final Object NO_MATCH = new Object();
+
+    private final StringDictionary dictionary = new StringDictionary();
+    private int type = UNKNOWN;
+
+    int getType() {
+        return type;
+    }
+
+    /**
+     * Widen column type to fit sample value
+     */
+    void infer(String value) {
+        if (!value.isEmpty())
+            type = widen(type, getType(value));
+    }
+
+    /**
+     * Parse value of column (empty value of not string column is null)
+     */
+    Object parse(String value) {
+        if (value.isEmpty())
+            return type == STRING || type == UNKNOWN ? value : null;
+
+        if (type != UNKNOWN) {
+            final Object result = parse(value, type);
+            if (result instanceof Long && type == INTEGER)
+                type = LONG;
+
+            if (result != NO_MATCH)
+                return result instanceof String ? dictionary.intern((String) result) : result;
+        }
+
+        type = widen(type, getType(value));
+        final Object result = parse(value, type);
+        return result instanceof String ? dictionary.intern((String) result) : result;
+    }
+
+    /**
+     * Parse single value (type of value is not known)
+     */
+    static Object parseValue(String value) {
+        return parse(value, getType(value));
+    }
+
+    /**
+     * @return date of dd.MM.yyyy or dd.MM.yyyy HH:mm:ss value or null if value is not date
+     */
+    static Date parseDateValue(String value) {
+        final Object result = value.length() == 10 ? parseDate(value) : value.length() == 19 ? parseDateTime(value) : NO_MATCH;
+        return result != NO_MATCH ? (Date) result : null;
+    }
+
+    /**
+     * @return the narrowest type of value
+     */
+    static int getType(String value) {
+        final int length = value.length();
+        if (length == 0)
+            return STRING;
+
+        final char first = value.charAt(0);
+
+        if (first == 't' || first == 'f')
+            return "true".equals(value) || "false".equals(value) ? BOOLEAN : STRING;
+
+        if (length == 10 && parseDate(value) != NO_MATCH)
+            return DATE;
+
+        if (length == 19 && parseDateTime(value) != NO_MATCH)
+            return DATETIME;
+
+        int i = first == '-' ? 1 : 0;
+        final int integerStart = i;
+        while (i < length && isDigit(value.charAt(i)))
+            i++;
+
+        final int integerDigits = i - integerStart;
+        if (integerDigits == 0)
+            return STRING;
+
+        if (i == length) {
+            if (integerDigits < 10)
+                return INTEGER;
+
+            final long longValue = parseLong(value);
+            if (longValue == Long.MIN_VALUE && !value.equals("-9223372036854775808"))
+                return DECIMAL;
+
+            return longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE ? INTEGER : LONG;
+        }
+
+        if (value.charAt(i) != '.' || i + 1 == length)
+            return STRING;
+
+        for (i++; i < length; i++)
+            if (!isDigit(value.charAt(i)))
+                return STRING;
+
+        return DECIMAL;
+    }
+
+    /**
+     * @return type which fits values of both types
+     */
+    static int widen(int type1, int type2) {
+        if (type1 == UNKNOWN || type1 == type2)
+            return type2;
+
+        if (type2 == UNKNOWN)
+            return type1;
+
+        if (type1 <= DECIMAL && type2 <= DECIMAL)
+            return Math.max(type1, type2);
+
+        if ((type1 == DATE || type1 == DATETIME) && (type2 == DATE || type2 == DATETIME))
+            return DATETIME;
+
+        return STRING;
+    }
+
+    private static Object parse(String value, int type) {
+        switch (type) {
+            case INTEGER:
+                return parseInteger(value);
+            case LONG: {
+                final Object result = parseInteger(value);
+                return result instanceof Integer ? (Object) ((Integer) result).longValue() : result;
+            }
+            case DECIMAL:
+                return parseDecimal(value);
+            case DATE:
+                return parseDate(value);
+            case DATETIME:
+                return value.length() == 10 ? parseDate(value) : parseDateTime(value);
+            case BOOLEAN:
+                if ("true".equals(value))
+                    return Boolean.TRUE;
+
+                return "false".equals(value) ? Boolean.FALSE : NO_MATCH;
+            default: {
+                if (value.contains("<![CDATA[")) {
+                    final Matcher cdataMatcher = RegExp.CDATA_PATTERN.matcher(value);
+                    if (cdataMatcher.find())
+                        return cdataMatcher.group(1);
+                }
+
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @return Integer, Long (if value doesn't fit int) or NO_MATCH
+     */
+    private static Object parseInteger(String value) {
+        final int length = value.length();
+        final int start = length > 0 && value.charAt(0) == '-' ? 1 : 0;
+        if (start == length)
+            return NO_MATCH;
+
+        if (length - start > 18) {
+            final int type = getType(value);
+            if (type != INTEGER && type != LONG)
+                return NO_MATCH;
+
+            final long result = parseLong(value);
+            return type == INTEGER ? (Object) (int) result : (Object) result;
+        }
+
+        long result = 0;
+        for (int i = start; i < length; i++) {
+            final char c = value.charAt(i);
+            if (!isDigit(c))
+                return NO_MATCH;
+
+            result = result * 10 + (c - '0');
+        }
+
+        if (start == 1)
+            result = -result;
+
+        if (result >= Integer.MIN_VALUE && result <= Integer.MAX_VALUE)
+            return (int) result;
+
+        return result;
+    }
+
+    /**
+     * @return value or Long.MIN_VALUE if value is too long
+     */
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * @return exact BigDecimal or NO_MATCH
+     */
+    private static Object parseDecimal(String value) {
+        final int length = value.length();
+        final int start = length > 0 && value.charAt(0) == '-' ? 1 : 0;
+
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1;
+
+        for (int i = start; i < length; i++) {
+            final char c = value.charAt(i);
+            if (isDigit(c)) {
+                unscaled = unscaled * 10 + (c - '0');
+                digits++;
+                if (scale >= 0)
+                    scale++;
+            } else if (c == '.' && scale < 0 && digits > 0 && i + 1 < length) {
+                scale = 0;
+            } else {
+                return NO_MATCH;
+            }
+        }
+
+        if (digits == 0)
+            return NO_MATCH;
+
+        if (digits > 18)
+            return new BigDecimal(value);
+
+        return BigDecimal.valueOf(start == 1 ? -unscaled : unscaled, Math.max(scale, 0));
+    }
+
+    /**
+     * dd.MM.yyyy
+     */
+    private static Object parseDate(String value) {
+        if (value.length() != 10 || value.charAt(2) != '.' || value.charAt(5) != '.')
+            return NO_MATCH;
+
+        final int day = parseDigits(value, 0, 2);
+        final int month = parseDigits(value, 3, 2);
+        final int year = parseDigits(value, 6, 4);
+        if (day < 0 || month < 0 || year < 0)
+            return NO_MATCH;
+
+        try {
+            return new LocalDate(year, month, day).toDate();
+        } catch (IllegalFieldValueException e) {
+            return NO_MATCH;
+        }
+    }
+
+    /**
+     * dd.MM.yyyy HH:mm:ss
+     */
+    private static Object parseDateTime(String value) {
+        if (value.length() != 19 || value.charAt(2) != '.' || value.charAt(5) != '.' || value.charAt(10) != ' ' ||
+                value.charAt(13) != ':' || value.charAt(16) != ':')
+            return NO_MATCH;
+
+        final int day = parseDigits(value, 0, 2);
+        final int month = parseDigits(value, 3, 2);
+        final int year = parseDigits(value, 6, 4);
+        final int hour = parseDigits(value, 11, 2);
+        final int minute = parseDigits(value, 14, 2);
+        final int second = parseDigits(value, 17, 2);
+        if (day < 0 || month < 0 || year < 0 || hour < 0 || minute < 0 || second < 0)
+            return NO_MATCH;
+
+        try {
+            return new DateTime(year, month, day, hour, minute, second).toDate();
+        } catch (IllegalFieldValueException e) {
+            return NO_MATCH;
+        }
+    }
+
+    /**
+     * @return number or -1 if there are not digits
+     */
+    private static int parseDigits(String value, int offset, int count) {
+        int result = 0;
+        for (int i = offset; i < offset + count; i++) {
+            final char c = value.charAt(i);
+            if (!isDigit(c))
+                return -1;
+
+            result = result * 10 + (c - '0');
+        }
+
+        return result;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,217 @@
+package gscript.factory.document;
+
+import gscript.util.hll.HyperLogLog;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Statistics of document column values: number of values and nulls, min and max values,
+ * approximate number of distinct values (HyperLogLog), max length of strings and max scale of decimals.
+ * <p>
+ * Statistics are updated when values are put into lines. When value is replaced or removed (or column values
+ * are cast) statistics are recomputed on next use.
+ */
+public final class GroovyMultilineDocumentColumnStats {
+
+    private final GroovyMultilineDocument document;
+    private final String columnName;
+
+    private final HyperLogLog distinctValues = new HyperLogLog();
+    private long count;
+    private long nullCount;
+    private Class valueClass;
+    private boolean mixedClasses;
+    private Object min;
+    private Object max;
+    private int maxLength;
+    private int maxScale;
+    private boolean valid;
+
+    GroovyMultilineDocumentColumnStats(GroovyMultilineDocument document, String columnName) {
+        this.document = document;
+        this.columnName = columnName;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * @return number of not null values
+     */
+    public long getCount() {
+        build();
+        return count;
+    }
+
+    /**
+     * @return number of null values
+     */
+    public long getNullCount() {
+        build();
+        return nullCount;
+    }
+
+    /**
+     * @return estimated number of distinct not null values
+     */
+    public long getDistinctCount() {
+        build();
+        return Math.min(distinctValues.estimate(), count);
+    }
+
+    /**
+     * @return class of not null values or null if values have different classes
+     */
+    public Class getValueClass() {
+        build();
+        return mixedClasses ? null : valueClass;
+    }
+
+    /**
+     * @return min value or null if there are no values or values are not comparable (or have different classes)
+     */
+    public Object getMin() {
+        build();
+        return min;
+    }
+
+    /**
+     * @return max value or null if there are no values or values are not comparable (or have different classes)
+     */
+    public Object getMax() {
+        build();
+        return max;
+    }
+
+    /**
+     * @return max length of string values
+     */
+    public int getMaxLength() {
+        build();
+        return maxLength;
+    }
+
+    /**
+     * @return max scale of decimal values
+     */
+    public int getMaxScale() {
+        build();
+        return maxScale;
+    }
+
+    /**
+     * Position of value between min and max values (numbers and dates)
+     *
+     * @param value value
+     * @return fraction from 0 (min) to 1 (max) or NaN if it can't be computed
+     */
+    public double getRangeFraction(Object value) {
+        build();
+
+        final double minValue = toDouble(min);
+        final double maxValue = toDouble(max);
+        final double doubleValue = toDouble(value);
+
+        if (Double.isNaN(minValue) || Double.isNaN(maxValue) || Double.isNaN(doubleValue))
+            return Double.NaN;
+
+        if (maxValue <= minValue)
+            return doubleValue < minValue ? 0 : 1;
+
+        return Math.max(0, Math.min(1, (doubleValue - minValue) / (maxValue - minValue)));
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number)
+            return ((Number) value).doubleValue();
+
+        if (value instanceof Date)
+            return ((Date) value).getTime();
+
+        return Double.NaN;
+    }
+
+    /**
+     * Value was put into line which did not contain it
+     */
+    void add(Object value) {
+        if (!valid)
+            return;
+
+        if (value == null) {
+            nullCount++;
+            return;
+        }
+
+        count++;
+        distinctValues.add(GroovyMultilineDocumentKeys.hash(value));
+
+        if (value instanceof String)
+            maxLength = Math.max(maxLength, ((String) value).length());
+        else if (value instanceof BigDecimal)
+            maxScale = Math.max(maxScale, ((BigDecimal) value).scale());
+
+        if (mixedClasses)
+            return;
+
+        if (valueClass == null) {
+            valueClass = value.getClass();
+        } else if (valueClass != value.getClass()) {
+            mixedClasses = true;
+            min = null;
+            max = null;
+            return;
+        }
+
+        if (value instanceof Comparable) {
+            // noinspection unchecked
+            if (min == null || ((Comparable) value).compareTo(min) < 0)
+                min = value;
+
+            // noinspection unchecked
+            if (max == null || ((Comparable) value).compareTo(max) > 0)
+                max = value;
+        }
+    }
+
+    /**
+     * Null value was replaced or removed
+     */
+    void removeNull() {
+        if (valid)
+            nullCount--;
+    }
+
+    /**
+     * Statistics will be recomputed on next use (value was replaced or removed, column values were cast)
+     */
+    void invalidate() {
+        valid = false;
+    }
+
+    void build() {
+        // lines were removed from document lines list
+        if (valid && count + nullCount > document.getLinesCount())
+            valid = false;
+
+        if (valid)
+            return;
+
+        distinctValues.clear();
+        count = 0;
+        nullCount = 0;
+        valueClass = null;
+        mixedClasses = false;
+        min = null;
+        max = null;
+        maxLength = 0;
+        maxScale = 0;
+
+        valid = true;
+        for (GroovyMultilineDocument.Line line : document.getLines())
+            if (line.containsKey(columnName))
+                add(line.get(columnName));
+    }
+}
@@ -0,0 +1,461 @@
+package gscript.factory.document;
+
+import java.util.*;
+
+/**
+ * Columnar line storage.
+ * <p>
+ * Values are kept in typed per-column arrays (long[] for integer numbers, double[] for floating point numbers,
+ * bits for booleans, dictionary codes for strings) with bitmaps of put and null values.
+ * When a value does not fit the column array, the column falls back to plain Object[].
+ * <p>
+ * Dates are kept as objects unless compact dates are requested: then they are kept as long[] epoch millis
+ * and every read returns new Date instance (changes of date made in place are lost).
+ */
+final class GroovyMultilineDocumentColumnStorage implements GroovyMultilineDocumentStorage {
+
+    /**
+     * Max number of distinct values in string column dictionary
+     */
+    private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    private final boolean compactDates;
+
+    private Vector[] vectors = new Vector[0];
+    private GroovyMultilineDocument.Column[] vectorColumns = new GroovyMultilineDocument.Column[0];
+    private int rowCount;
+
+    /**
+     * @param compactDates keep dates as epoch millis
+     */
+    GroovyMultilineDocumentColumnStorage(boolean compactDates) {
+        this.compactDates = compactDates;
+    }
+
+    @Override
+    public int createRow() {
+        return rowCount++;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    private Vector getVector(GroovyMultilineDocument.Column column) {
+        final int index = column.getIndex();
+        return index < vectors.length ? vectors[index] : null;
+    }
+
+    @Override
+    public boolean contains(int row, GroovyMultilineDocument.Column column) {
+        final Vector vector = getVector(column);
+        return vector != null && vector.isAssigned(row);
+    }
+
+    @Override
+    public Object get(int row, GroovyMultilineDocument.Column column) {
+        final Vector vector = getVector(column);
+        return vector != null ? vector.get(row) : null;
+    }
+
+    @Override
+    public Object set(int row, GroovyMultilineDocument.Column column, Object value) {
+        final int index = column.getIndex();
+        if (index >= vectors.length) {
+            vectors = Arrays.copyOf(vectors, index + 1);
+            vectorColumns = Arrays.copyOf(vectorColumns, index + 1);
+        }
+
+        Vector vector = vectors[index];
+        final Object oldValue = vector != null ? vector.get(row) : null;
+
+        if (vector == null || value != null && vector.isNullsOnly()) {
+            // column array type is chosen by first not null value
+            final Vector newVector = value != null ? createVector(value) : new ObjectVector();
+            if (vector != null)
+                newVector.copyBits(vector);
+
+            vector = newVector;
+            vectors[index] = vector;
+            vectorColumns[index] = column;
+        } else if (value != null && !vector.accept(value, column.getJavaClass())) {
+            vector = new ObjectVector(vector, rowCount);
+            vectors[index] = vector;
+        }
+
+        vector.set(row, value);
+        return oldValue;
+    }
+
+    @Override
+    public Object remove(int row, GroovyMultilineDocument.Column column) {
+        final Vector vector = getVector(column);
+        if (vector == null)
+            return null;
+
+        final Object oldValue = vector.get(row);
+        vector.unset(row);
+        return oldValue;
+    }
+
+    @Override
+    public Iterator<GroovyMultilineDocument.Column> columns(final int row) {
+        return new Iterator<GroovyMultilineDocument.Column>() {
+            private int next = seek(0);
+
+            private int seek(int from) {
+                while (from < vectors.length && (vectors[from] == null || !vectors[from].isAssigned(row)))
+                    from++;
+
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < vectors.length;
+            }
+
+            @Override
+            public GroovyMultilineDocument.Column next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                final GroovyMultilineDocument.Column column = vectorColumns[next];
+                next = seek(next + 1);
+                return column;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public int size(int row) {
+        int size = 0;
+        for (Vector vector : vectors)
+            if (vector != null && vector.isAssigned(row))
+                size++;
+
+        return size;
+    }
+
+    private Vector createVector(Object value) {
+        final Class valueClass = value.getClass();
+
+        if (valueClass == Integer.class || valueClass == Long.class || valueClass == Short.class || valueClass == Byte.class)
+            return new LongVector(valueClass);
+
+        if (valueClass == Double.class || valueClass == Float.class)
+            return new DoubleVector(valueClass);
+
+        if (valueClass == Date.class && compactDates)
+            return new DateVector();
+
+        if (valueClass == Boolean.class)
+            return new BooleanVector();
+
+        if (valueClass == String.class)
+            return new StringVector();
+
+        return new ObjectVector();
+    }
+
+    private static boolean get(long[] bits, int index) {
+        final int word = index >>> 6;
+        return word < bits.length && (bits[word] & (1L << index)) != 0;
+    }
+
+    private static long[] set(long[] bits, int index, boolean value) {
+        final int word = index >>> 6;
+        if (word >= bits.length) {
+            if (!value)
+                return bits;
+
+            bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length + (bits.length >> 1)));
+        }
+
+        if (value)
+            bits[word] |= 1L << index;
+        else
+            bits[word] &= ~(1L << index);
+
+        return bits;
+    }
+
+    private static int newCapacity(int capacity, int row) {
+        return Math.max(row + 1, Math.max(16, capacity + (capacity >> 1)));
+    }
+
+    /**
+     * Values of one column
+     */
+    private abstract static class Vector {
+
+        private long[] assigned = new long[0];
+        private long[] nulls = new long[0];
+        private boolean nullsOnly = true;
+
+        final boolean isNullsOnly() {
+            return nullsOnly;
+        }
+
+        final void copyBits(Vector vector) {
+            assigned = vector.assigned.clone();
+            nulls = vector.nulls.clone();
+        }
+
+        final boolean isAssigned(int row) {
+            return GroovyMultilineDocumentColumnStorage.get(assigned, row);
+        }
+
+        final Object get(int row) {
+            if (!isAssigned(row) || GroovyMultilineDocumentColumnStorage.get(nulls, row))
+                return null;
+
+            return getValue(row);
+        }
+
+        final void set(int row, Object value) {
+            assigned = GroovyMultilineDocumentColumnStorage.set(assigned, row, true);
+            nulls = GroovyMultilineDocumentColumnStorage.set(nulls, row, value == null);
+
+            if (value != null) {
+                setValue(row, value);
+                nullsOnly = false;
+            } else {
+                clearValue(row);
+            }
+        }
+
+        final void unset(int row) {
+            assigned = GroovyMultilineDocumentColumnStorage.set(assigned, row, false);
+            nulls = GroovyMultilineDocumentColumnStorage.set(nulls, row, false);
+            clearValue(row);
+        }
+
+        /**
+         * @param value       not null value
+         * @param columnClass current class of column
+         * @return true if value can be kept by this vector
+         */
+        abstract boolean accept(Object value, Class columnClass);
+
+        abstract Object getValue(int row);
+
+        abstract void setValue(int row, Object value);
+
+        void clearValue(int row) {
+        }
+    }
+
+    private static final class LongVector extends Vector {
+        private long[] values = new long[0];
+        private Class valueClass;
+
+        LongVector(Class valueClass) {
+            this.valueClass = valueClass;
+        }
+
+        @Override
+        boolean accept(Object value, Class columnClass) {
+            final Class otherClass = value.getClass();
+            if (otherClass == valueClass)
+                return true;
+
+            // column was widened (for example Integer -> Long), so all values are read as new class
+            if (otherClass == columnClass &&
+                    (otherClass == Integer.class || otherClass == Long.class || otherClass == Short.class || otherClass == Byte.class)) {
+                valueClass = otherClass;
+                return true;
+            }
+
+            return false;
+        }
+
+        @Override
+        Object getValue(int row) {
+            final long value = values[row];
+
+            if (valueClass == Integer.class)
+                return (int) value;
+
+            if (valueClass == Short.class)
+                return (short) value;
+
+            if (valueClass == Byte.class)
+                return (byte) value;
+
+            return value;
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            if (row >= values.length)
+                values = Arrays.copyOf(values, newCapacity(values.length, row));
+
+            values[row] = ((Number) value).longValue();
+        }
+    }
+
+    private static final class DoubleVector extends Vector {
+        private double[] values = new double[0];
+        private Class valueClass;
+
+        DoubleVector(Class valueClass) {
+            this.valueClass = valueClass;
+        }
+
+        @Override
+        boolean accept(Object value, Class columnClass) {
+            final Class otherClass = value.getClass();
+            if (otherClass == valueClass)
+                return true;
+
+            if (otherClass == columnClass && (otherClass == Double.class || otherClass == Float.class)) {
+                valueClass = otherClass;
+                return true;
+            }
+
+            return false;
+        }
+
+        @Override
+        Object getValue(int row) {
+            if (valueClass == Float.class)
+                return (float) values[row];
+
+            return values[row];
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            if (row >= values.length)
+                values = Arrays.copyOf(values, newCapacity(values.length, row));
+
+            values[row] = ((Number) value).doubleValue();
+        }
+    }
+
+    private static final class DateVector extends Vector {
+        private long[] values = new long[0];
+
+        @Override
+        boolean accept(Object value, Class columnClass) {
+            return value.getClass() == Date.class;
+        }
+
+        @Override
+        Object getValue(int row) {
+            return new Date(values[row]);
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            if (row >= values.length)
+                values = Arrays.copyOf(values, newCapacity(values.length, row));
+
+            values[row] = ((Date) value).getTime();
+        }
+    }
+
+    private static final class BooleanVector extends Vector {
+        private long[] values = new long[0];
+
+        @Override
+        boolean accept(Object value, Class columnClass) {
+            return value.getClass() == Boolean.class;
+        }
+
+        @Override
+        Object getValue(int row) {
+            return GroovyMultilineDocumentColumnStorage.get(values, row);
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            values = GroovyMultilineDocumentColumnStorage.set(values, row, (Boolean) value);
+        }
+
+        @Override
+        void clearValue(int row) {
+            values = GroovyMultilineDocumentColumnStorage.set(values, row, false);
+        }
+    }
+
+    private static final class StringVector extends Vector {
+        private int[] codes = new int[0];
+        private final List<String> dictionary = new ArrayList<>();
+        private final Map<String, Integer> dictionaryCodes = new HashMap<>();
+
+        @Override
+        boolean accept(Object value, Class columnClass) {
+            return value.getClass() == String.class &&
+                    (dictionary.size() < MAX_DICTIONARY_SIZE || dictionaryCodes.containsKey(value));
+        }
+
+        @Override
+        Object getValue(int row) {
+            return dictionary.get(codes[row]);
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            if (row >= codes.length)
+                codes = Arrays.copyOf(codes, newCapacity(codes.length, row));
+
+            Integer code = dictionaryCodes.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add((String) value);
+                dictionaryCodes.put((String) value, code);
+            }
+
+            codes[row] = code;
+        }
+    }
+
+    private static final class ObjectVector extends Vector {
+        private Object[] values = new Object[0];
+
+        ObjectVector() {
+        }
+
+        /**
+         * Copy values of typed vector
+         */
+        ObjectVector(Vector vector, int rowCount) {
+            copyBits(vector);
+            for (int row = 0; row < rowCount; row++)
+                if (vector.isAssigned(row))
+                    set(row, vector.get(row));
+        }
+
+        @Override
+        boolean accept(Object value, Class columnClass) {
+            return true;
+        }
+
+        @Override
+        Object getValue(int row) {
+            return values[row];
+        }
+
+        @Override
+        void setValue(int row, Object value) {
+            if (row >= values.length)
+                values = Arrays.copyOf(values, newCapacity(values.length, row));
+
+            values[row] = value;
+        }
+
+        @Override
+        void clearValue(int row) {
+            if (row < values.length)
+                values[row] = null;
+        }
+    }
+}
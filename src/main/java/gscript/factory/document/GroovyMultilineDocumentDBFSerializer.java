@@ -2,17 +2,21 @@ package gscript.factory.document;
 
 import gscript.Factory;
 import gscript.GroovyException;
+import gscript.factory.file.dbf.GroovyDBFException;
 import gscript.factory.file.dbf.GroovyDBFField;
 import gscript.factory.file.dbf.GroovyDBFFileReader;
 import gscript.factory.file.dbf.GroovyDBFWriter;
-import org.apache.commons.lang3.ArrayUtils;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 public final class GroovyMultilineDocumentDBFSerializer {
@@ -32,27 +36,27 @@ public final class GroovyMultilineDocumentDBFSerializer {
     }
 
     public void saveToFile(GroovyMultilineDocument doc, File file, String encoding) {
+        saveToFile(doc, file, encoding, false);
+    }
+
+    /**
+     * Save document to DBF file.
+     * <p>
+     * Fields of columns with defined size are written as defined. Sizes of other numeric and string fields
+     * are computed from column statistics (if document has them), otherwise from values of all lines
+     * if fitFields is set, otherwise default sizes are used (N(9), N(18), N(16,2) and C(254)).
+     *
+     * @param fitFields scan lines to compute minimal sizes of numeric and string fields
+     */
+    public void saveToFile(GroovyMultilineDocument doc, File file, String encoding, boolean fitFields) {
         try {
-            GroovyDBFField[] fields = new GroovyDBFField[0];
-
-            for (GroovyMultilineDocument.Column column : doc.getColumns().values()) {
-                if (column.getJavaClass() == Long.class)
-                    fields = ArrayUtils.add(fields, new GroovyDBFField(column.getName(), 'N', column.getSize() != null ? column.getSize() : 18, column.getScale() != null ? column.getScale() : 0));
-                else if (column.getJavaClass() == Integer.class)
-                    fields = ArrayUtils.add(fields, new GroovyDBFField(column.getName(), 'N', column.getSize() != null ? column.getSize() : 9, column.getScale() != null ? column.getScale() : 0));
-                else if (column.getJavaClass() == Double.class)
-                    fields = ArrayUtils.add(fields, new GroovyDBFField(column.getName(), 'N', column.getSize() != null ? column.getSize() : 16, column.getScale() != null ? column.getScale() : 2));
-                else if (column.getJavaClass() == Float.class)
-                    fields = ArrayUtils.add(fields, new GroovyDBFField(column.getName(), 'N', column.getSize() != null ? column.getSize() : 16, column.getScale() != null ? column.getScale() : 2));
-                else if (column.getJavaClass() == BigDecimal.class)
-                    fields = ArrayUtils.add(fields, new GroovyDBFField(column.getName(), 'N', column.getSize() != null ? column.getSize() : 16, column.getScale() != null ? column.getScale() : 2));
-                else if (column.getJavaClass() == Boolean.class)
-                    fields = ArrayUtils.add(fields, new GroovyDBFField(column.getName(), 'L', 1, 0));
-                else if (Date.class.isAssignableFrom(column.getJavaClass()))
-                    fields = ArrayUtils.add(fields, new GroovyDBFField(column.getName(), 'D', 8, 0));
-                else
-                    fields = ArrayUtils.add(fields, new GroovyDBFField(column.getName(), 'C', column.getSize() != null ? column.getSize() : 254, column.getScale() != null ? column.getScale() : 0));
-            }
+            final GroovyMultilineDocument.Column[] columns = doc.getColumns().values().toArray(new GroovyMultilineDocument.Column[doc.getColumns().size()]);
+            final FieldProfile[] profiles = getFieldProfiles(doc, columns, fitFields);
+            final float bytesPerChar = (encoding != null ? Charset.forName(encoding) : Charset.defaultCharset()).newEncoder().maxBytesPerChar();
+
+            final GroovyDBFField[] fields = new GroovyDBFField[columns.length];
+            for (int i = 0; i < columns.length; i++)
+                fields[i] = createField(columns[i], profiles[i], bytesPerChar);
 
             try (OutputStream outputStream = new FileOutputStream(file)) {
                 final GroovyDBFWriter writer = new GroovyDBFWriter(new BufferedOutputStream(outputStream),
@@ -61,11 +65,11 @@ public final class GroovyMultilineDocumentDBFSerializer {
                         doc.getLines().size());
 
                 try {
-                    for (GroovyMultilineDocument.Line line : doc.getLines()) {
-                        Object[] values = new Object[0];
+                    final Object[] values = new Object[columns.length];
 
-                        for (String columnName : doc.getColumnNames())
-                            values = ArrayUtils.add(values, line.get(columnName));
+                    for (GroovyMultilineDocument.Line line : doc.getLines()) {
+                        for (int i = 0; i < columns.length; i++)
+                            values[i] = line.getValue(columns[i]);
 
                         writer.addRecord(values);
                     }
@@ -78,6 +82,147 @@ public final class GroovyMultilineDocumentDBFSerializer {
         }
     }
 
+    private static GroovyDBFField createField(GroovyMultilineDocument.Column column, FieldProfile profile, float bytesPerChar) throws GroovyDBFException {
+        final Class javaClass = column.getJavaClass();
+
+        if (javaClass == Boolean.class)
+            return new GroovyDBFField(column.getName(), 'L', 1, 0);
+
+        if (javaClass != null && Date.class.isAssignableFrom(javaClass))
+            return new GroovyDBFField(column.getName(), 'D', 8, 0);
+
+        if (!isNumericClass(javaClass)) {
+            if (column.getSize() != null || profile == null)
+                return new GroovyDBFField(column.getName(), 'C', column.getSize() != null ? column.getSize() : 254, column.getScale() != null ? column.getScale() : 0);
+
+            // field length is in bytes of encoding
+            return new GroovyDBFField(column.getName(), 'C', Math.max(1, Math.min(254, (int) Math.ceil(profile.maxLength * bytesPerChar))), 0);
+        }
+
+        final int defaultSize = javaClass == Long.class ? 18 : javaClass == Integer.class ? 9 : 16;
+        final int defaultScale = javaClass == Long.class || javaClass == Integer.class ? 0 : 2;
+
+        if (column.getSize() != null || profile == null)
+            return new GroovyDBFField(column.getName(), 'N', column.getSize() != null ? column.getSize() : defaultSize, column.getScale() != null ? column.getScale() : defaultScale);
+
+        final int scale = column.getScale() != null ? column.getScale() : javaClass == BigDecimal.class ? profile.maxScale : defaultScale;
+        final int length = profile.integerDigits + (profile.negative ? 1 : 0) + (scale > 0 ? scale + 1 : 0);
+
+        return new GroovyDBFField(column.getName(), 'N', length, scale);
+    }
+
+    private static boolean isNumericClass(Class javaClass) {
+        return javaClass == Long.class || javaClass == Integer.class || javaClass == Double.class ||
+                javaClass == Float.class || javaClass == BigDecimal.class;
+    }
+
+    /**
+     * Profiles of numeric and string columns without defined size: from column statistics
+     * or (if fitFields is set) from values of all lines, scanned once for all columns.
+     *
+     * @return profiles by column index (null if default field size is used)
+     */
+    private static FieldProfile[] getFieldProfiles(GroovyMultilineDocument doc, GroovyMultilineDocument.Column[] columns, boolean fitFields) {
+        final FieldProfile[] profiles = new FieldProfile[columns.length];
+        final List<Integer> scannedColumns = new ArrayList<>();
+
+        for (int i = 0; i < columns.length; i++) {
+            final GroovyMultilineDocument.Column column = columns[i];
+            final Class javaClass = column.getJavaClass();
+
+            if (column.getSize() != null || javaClass == Boolean.class || (javaClass != null && Date.class.isAssignableFrom(javaClass)))
+                continue;
+
+            final GroovyMultilineDocumentColumnStats stats = doc.getColumnStats(column.getName());
+            if (stats != null) {
+                final FieldProfile profile = new FieldProfile();
+                profile.maxLength = stats.getMaxLength();
+                profile.maxScale = stats.getMaxScale();
+
+                if (!isNumericClass(javaClass) || stats.getCount() == 0) {
+                    profiles[i] = profile;
+                    continue;
+                }
+
+                // min and max values are known only if all values have the same class
+                if (stats.getMin() instanceof Number && stats.getMax() instanceof Number) {
+                    profile.add(stats.getMin());
+                    profile.add(stats.getMax());
+                    profiles[i] = profile;
+                    continue;
+                }
+            }
+
+            if (fitFields) {
+                profiles[i] = new FieldProfile();
+                scannedColumns.add(i);
+            }
+        }
+
+        if (!scannedColumns.isEmpty()) {
+            for (GroovyMultilineDocument.Line line : doc.getLines())
+                for (Integer i : scannedColumns)
+                    profiles[i].add(line.getValue(columns[i]));
+        }
+
+        return profiles;
+    }
+
+    /**
+     * Max string length, max decimal scale, max number of integer digits and sign of column values
+     */
+    private static final class FieldProfile {
+        private int maxLength;
+        private int maxScale;
+        private int integerDigits = 1;
+        private boolean negative;
+
+        void add(Object value) {
+            if (value instanceof String) {
+                maxLength = Math.max(maxLength, ((String) value).length());
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                addInteger(((Number) value).longValue());
+            } else if (value instanceof BigDecimal) {
+                final BigDecimal decimal = (BigDecimal) value;
+                maxScale = Math.max(maxScale, decimal.scale());
+
+                if (decimal.signum() < 0)
+                    negative = true;
+
+                // integer part is rounded up, so value rounded to smaller scale fits too
+                integerDigits = Math.max(integerDigits, decimal.abs().setScale(0, RoundingMode.CEILING).precision());
+            } else if (value instanceof Number) {
+                final double doubleValue = ((Number) value).doubleValue();
+                if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue))
+                    return;
+
+                if (doubleValue < 0)
+                    negative = true;
+
+                final double ceilValue = Math.ceil(Math.abs(doubleValue));
+                if (ceilValue < Long.MAX_VALUE)
+                    addInteger((long) ceilValue);
+                else
+                    integerDigits = Math.max(integerDigits, new BigDecimal(ceilValue).precision());
+            }
+        }
+
+        private void addInteger(long value) {
+            if (value < 0)
+                negative = true;
+
+            // negative value has no overflow for Long.MIN_VALUE
+            int digits = 1;
+            long rest = value < 0 ? value : -value;
+            while (rest <= -10) {
+                rest /= 10;
+                digits++;
+            }
+
+            integerDigits = Math.max(integerDigits, digits);
+        }
+    }
+
     private Object getRecordValue(Object recordValue) {
         return recordValue;
     }
@@ -0,0 +1,89 @@
+package gscript.factory.document;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.Date;
+
+/**
+ * Formats dates as dd.MM.yyyy or dd.MM.yyyy HH:mm:ss (if time is not midnight) in default time zone,
+ * the same way as GroovyDateFactory.getDateAsString does.
+ * Fields are computed from epoch millis into reused char buffer, so no objects are created for the date.
+ */
+final class GroovyMultilineDocumentDateFormatter {
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private final char[] chars = new char[32];
+
+    /**
+     * @return buffer with formatted date
+     */
+    char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * Format date into buffer
+     *
+     * @return length of formatted date
+     */
+    int format(Date date) {
+        final long millis = date.getTime();
+        final long localMillis = millis + DateTimeZone.getDefault().getOffset(millis);
+
+        final long days = floorDiv(localMillis, MILLIS_PER_DAY);
+        final int millisOfDay = (int) (localMillis - days * MILLIS_PER_DAY);
+
+        // civil date of days since 1970-01-01 (proleptic Gregorian calendar, as ISO chronology)
+        final long shiftedDays = days + 719468;
+        final long era = floorDiv(shiftedDays, 146097);
+        final int dayOfEra = (int) (shiftedDays - era * 146097);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int monthIndex = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        final int month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < 0 || year > 9999) {
+            final DateTime dateTime = new DateTime(date);
+            final String s = millisOfDay / 1000 == 0 ?
+                    dateTime.toString("dd.MM.yyyy") : dateTime.toString("dd.MM.yyyy HH:mm:ss");
+
+            final int length = Math.min(s.length(), chars.length);
+            s.getChars(0, length, chars, 0);
+            return length;
+        }
+
+        writeDigits(0, day, 2);
+        chars[2] = '.';
+        writeDigits(3, month, 2);
+        chars[5] = '.';
+        writeDigits(6, (int) year, 4);
+
+        final int secondOfDay = millisOfDay / 1000;
+        if (secondOfDay == 0)
+            return 10;
+
+        chars[10] = ' ';
+        writeDigits(11, secondOfDay / 3600, 2);
+        chars[13] = ':';
+        writeDigits(14, secondOfDay / 60 % 60, 2);
+        chars[16] = ':';
+        writeDigits(17, secondOfDay % 60, 2);
+        return 19;
+    }
+
+    private void writeDigits(int offset, int value, int count) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        final long result = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? result - 1 : result;
+    }
+}
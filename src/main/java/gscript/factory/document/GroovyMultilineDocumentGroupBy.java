@@ -0,0 +1,539 @@
+package gscript.factory.document;
+
+import gscript.Factory;
+import gscript.GroovyException;
+import gscript.util.ConcurrencyUtils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Aggregation of document lines grouped by key columns.
+ * <p>
+ * Groups are kept in open addressing hash table, sums are accumulated in primitive arrays
+ * (long for integer numbers, double for floating point numbers, BigDecimal only for decimal numbers).
+ * Result document contains one line per group in order of first group line.
+ */
+public final class GroovyMultilineDocumentGroupBy {
+
+    /**
+     * Min number of lines aggregated by one partition
+     */
+    private static final int MIN_PARTITION_SIZE = 65536;
+
+    private enum Function {
+        SUM, COUNT, AVG
+    }
+
+    private static final class Aggregate {
+        final Function function;
+        final String columnName;
+        final String resultColumnName;
+
+        Aggregate(Function function, String columnName, String resultColumnName) {
+            this.function = function;
+            this.columnName = columnName;
+            this.resultColumnName = resultColumnName;
+        }
+    }
+
+    private final GroovyMultilineDocument document;
+    private final Factory factory;
+    private final String[] keyColumnNames;
+    private final List<Aggregate> aggregates = new ArrayList<>();
+    private int parallelism = 1;
+
+    GroovyMultilineDocumentGroupBy(GroovyMultilineDocument document, Factory factory, String[] keyColumnNames) {
+        this.document = document;
+        this.factory = factory;
+        this.keyColumnNames = keyColumnNames;
+    }
+
+    /**
+     * Add sum of column values (result column SUM_columnName)
+     *
+     * @param columnName column name
+     * @return this
+     */
+    public GroovyMultilineDocumentGroupBy sum(String columnName) {
+        return sum(columnName, "SUM_" + columnName);
+    }
+
+    /**
+     * Add sum of column values
+     *
+     * @param columnName       column name
+     * @param resultColumnName result column name
+     * @return this
+     */
+    public GroovyMultilineDocumentGroupBy sum(String columnName, String resultColumnName) {
+        aggregates.add(new Aggregate(Function.SUM, columnName, resultColumnName));
+        return this;
+    }
+
+    /**
+     * Add count of group lines (result column COUNT)
+     *
+     * @return this
+     */
+    public GroovyMultilineDocumentGroupBy count() {
+        return count("COUNT");
+    }
+
+    /**
+     * Add count of group lines
+     *
+     * @param resultColumnName result column name
+     * @return this
+     */
+    public GroovyMultilineDocumentGroupBy count(String resultColumnName) {
+        aggregates.add(new Aggregate(Function.COUNT, null, resultColumnName));
+        return this;
+    }
+
+    /**
+     * Add average of column values (result column AVG_columnName), null values are skipped
+     *
+     * @param columnName column name
+     * @return this
+     */
+    public GroovyMultilineDocumentGroupBy avg(String columnName) {
+        return avg(columnName, "AVG_" + columnName);
+    }
+
+    /**
+     * Add average of column values, null values are skipped
+     *
+     * @param columnName       column name
+     * @param resultColumnName result column name
+     * @return this
+     */
+    public GroovyMultilineDocumentGroupBy avg(String columnName, String resultColumnName) {
+        aggregates.add(new Aggregate(Function.AVG, columnName, resultColumnName));
+        return this;
+    }
+
+    /**
+     * Set number of threads (lines are split into partitions aggregated in parallel).
+     * Document lines must not be changed while lines are aggregated.
+     *
+     * @param parallelism number of threads
+     * @return this
+     */
+    public GroovyMultilineDocumentGroupBy setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new GroovyException("Parallelism must be positive: " + parallelism);
+
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Aggregate document lines
+     *
+     * @return new document with key columns and aggregate columns
+     */
+    public GroovyMultilineDocument toDocument() {
+        final GroovyMultilineDocument.Column[] keyColumns = new GroovyMultilineDocument.Column[keyColumnNames.length];
+        for (int i = 0; i < keyColumnNames.length; i++)
+            keyColumns[i] = document.getColumns().get(keyColumnNames[i]);
+
+        final GroovyMultilineDocument.Column[] valueColumns = new GroovyMultilineDocument.Column[aggregates.size()];
+        for (int i = 0; i < valueColumns.length; i++)
+            if (aggregates.get(i).columnName != null)
+                valueColumns[i] = document.getColumns().get(aggregates.get(i).columnName);
+
+        final List<GroovyMultilineDocument.Line> lines = document.getLines();
+        final int partitionCount = Math.max(1, Math.min(parallelism, lines.size() / MIN_PARTITION_SIZE));
+
+        final int groupCount = getExpectedGroupCount(lines.size());
+
+        final GroupTable table;
+        if (partitionCount == 1) {
+            table = new GroupTable(keyColumns, valueColumns, groupCount);
+            table.addAll(lines, 0, lines.size());
+        } else {
+            table = aggregateInParallel(lines, partitionCount, keyColumns, valueColumns, groupCount);
+        }
+
+        return createDocument(table, keyColumns);
+    }
+
+    /**
+     * Estimate number of groups by statistics of key columns
+     *
+     * @return number of groups or 0 if key columns have no statistics
+     */
+    private int getExpectedGroupCount(int lineCount) {
+        long groupCount = 1;
+        for (String keyColumnName : keyColumnNames) {
+            final GroovyMultilineDocumentColumnStats stats = document.getColumnStats(keyColumnName);
+            if (stats == null)
+                return 0;
+
+            // lines with null or without key value make one more group
+            groupCount *= stats.getDistinctCount() + (stats.getCount() < lineCount ? 1 : 0);
+            if (groupCount >= lineCount)
+                return lineCount;
+        }
+
+        return (int) groupCount;
+    }
+
+    private GroupTable aggregateInParallel(final List<GroovyMultilineDocument.Line> lines, int partitionCount,
+                                           final GroovyMultilineDocument.Column[] keyColumns,
+                                           final GroovyMultilineDocument.Column[] valueColumns, final int groupCount) {
+        // values of widened columns are cast once, not on every read by every thread
+        document.castPendingValues();
+
+        final List<Callable<GroupTable>> tasks = new ArrayList<>();
+        for (int i = 0; i < partitionCount; i++) {
+            final int from = (int) ((long) lines.size() * i / partitionCount);
+            final int to = (int) ((long) lines.size() * (i + 1) / partitionCount);
+
+            tasks.add(new Callable<GroupTable>() {
+                @Override
+                public GroupTable call() {
+                    final GroupTable table = new GroupTable(keyColumns, valueColumns, Math.min(groupCount, to - from));
+                    table.addAll(lines, from, to);
+                    return table;
+                }
+            });
+        }
+
+        // partitions are merged in lines order, so groups keep order of first line
+        GroupTable result = null;
+        for (Future<GroupTable> future : ConcurrencyUtils.getForkJoinPool(parallelism).invokeAll(tasks)) {
+            final GroupTable table;
+            try {
+                table = future.get();
+            } catch (InterruptedException e) {
+                throw new GroovyException(e);
+            } catch (ExecutionException e) {
+                throw new GroovyException(e.getCause());
+            }
+
+            if (result == null)
+                result = table;
+            else
+                result.merge(table);
+        }
+
+        return result;
+    }
+
+    private GroovyMultilineDocument createDocument(GroupTable table, GroovyMultilineDocument.Column[] keyColumns) {
+        final GroovyMultilineDocument result = new GroovyMultilineDocument(factory);
+
+        for (int i = 0; i < keyColumnNames.length; i++) {
+            final GroovyMultilineDocument.Column column = keyColumns[i];
+            if (column != null)
+                result.createColumn(keyColumnNames[i], column.getTitle(), column.getJavaClass(), column.getSize(), column.getScale());
+            else
+                result.createColumn(keyColumnNames[i], keyColumnNames[i], null);
+        }
+
+        final int[] kinds = new int[aggregates.size()];
+        for (int i = 0; i < kinds.length; i++) {
+            final Aggregate aggregate = aggregates.get(i);
+            final Class resultClass;
+
+            if (aggregate.function == Function.COUNT) {
+                resultClass = Long.class;
+            } else {
+                kinds[i] = table.accumulators[i].getKinds();
+
+                if ((kinds[i] & Accumulator.DECIMAL) != 0)
+                    resultClass = BigDecimal.class;
+                else if ((kinds[i] & Accumulator.DOUBLE) != 0 || aggregate.function == Function.AVG)
+                    resultClass = Double.class;
+                else
+                    resultClass = Long.class;
+            }
+
+            result.createColumn(aggregate.resultColumnName, aggregate.resultColumnName, resultClass);
+        }
+
+        final int keyCount = keyColumnNames.length;
+        for (int group = 0; group < table.size; group++) {
+            final GroovyMultilineDocument.Line line = result.createLine();
+
+            for (int i = 0; i < keyCount; i++)
+                line.put(keyColumnNames[i], table.keys[group * keyCount + i]);
+
+            for (int i = 0; i < kinds.length; i++) {
+                final Aggregate aggregate = aggregates.get(i);
+
+                if (aggregate.function == Function.COUNT)
+                    line.put(aggregate.resultColumnName, table.lineCounts[group]);
+                else if (aggregate.function == Function.SUM)
+                    line.put(aggregate.resultColumnName, table.accumulators[i].getSum(group, kinds[i]));
+                else
+                    line.put(aggregate.resultColumnName, table.accumulators[i].getAverage(group, kinds[i]));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Open addressing hash table of groups
+     */
+    private static final class GroupTable {
+        private final GroovyMultilineDocument.Column[] keyColumns;
+        private final GroovyMultilineDocument.Column[] valueColumns;
+        private final Accumulator[] accumulators;
+
+        private int size;
+        private Object[] keys;
+        private int[] hashes;
+        private long[] lineCounts;
+
+        /**
+         * Group number + 1 (0 - empty slot)
+         */
+        private int[] slots;
+
+        /**
+         * @param groupCount expected number of groups (0 - unknown)
+         */
+        GroupTable(GroovyMultilineDocument.Column[] keyColumns, GroovyMultilineDocument.Column[] valueColumns, int groupCount) {
+            this.keyColumns = keyColumns;
+            this.valueColumns = valueColumns;
+
+            final int capacity = Math.max(16, groupCount);
+            int slotCount = 32;
+            while (slotCount < capacity * 2)
+                slotCount <<= 1;
+
+            accumulators = new Accumulator[valueColumns.length];
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i] = new Accumulator(valueColumns[i] != null ? valueColumns[i].getName() : null);
+                accumulators[i].ensureCapacity(capacity);
+            }
+
+            keys = new Object[capacity * keyColumns.length];
+            hashes = new int[capacity];
+            lineCounts = new long[capacity];
+            slots = new int[slotCount];
+        }
+
+        void addAll(List<GroovyMultilineDocument.Line> lines, int from, int to) {
+            final Object[] key = new Object[keyColumns.length];
+
+            for (int i = from; i < to; i++) {
+                final GroovyMultilineDocument.Line line = lines.get(i);
+
+                for (int k = 0; k < key.length; k++)
+                    key[k] = keyColumns[k] != null ? line.getValue(keyColumns[k]) : null;
+
+                final int group = getGroup(key, GroovyMultilineDocumentKeys.hash(key));
+                lineCounts[group]++;
+
+                for (int a = 0; a < accumulators.length; a++)
+                    if (valueColumns[a] != null)
+                        accumulators[a].add(group, line.getValue(valueColumns[a]));
+            }
+        }
+
+        void merge(GroupTable table) {
+            final int keyCount = keyColumns.length;
+            final Object[] key = new Object[keyCount];
+
+            for (int otherGroup = 0; otherGroup < table.size; otherGroup++) {
+                System.arraycopy(table.keys, otherGroup * keyCount, key, 0, keyCount);
+
+                final int group = getGroup(key, table.hashes[otherGroup]);
+                lineCounts[group] += table.lineCounts[otherGroup];
+
+                for (int a = 0; a < accumulators.length; a++)
+                    accumulators[a].merge(group, table.accumulators[a], otherGroup);
+            }
+        }
+
+        /**
+         * Find group of key or create new group
+         */
+        private int getGroup(Object[] key, int hash) {
+            final int mask = slots.length - 1;
+            final int keyCount = key.length;
+            int slot = hash & mask;
+
+            while (slots[slot] != 0) {
+                final int group = slots[slot] - 1;
+
+                if (hashes[group] == hash) {
+                    boolean equal = true;
+                    for (int k = 0; k < keyCount && equal; k++)
+                        equal = GroovyMultilineDocumentKeys.equals(keys[group * keyCount + k], key[k]);
+
+                    if (equal)
+                        return group;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            final int group = size++;
+            if (group == hashes.length) {
+                final int capacity = hashes.length * 2;
+                keys = Arrays.copyOf(keys, capacity * keyCount);
+                hashes = Arrays.copyOf(hashes, capacity);
+                lineCounts = Arrays.copyOf(lineCounts, capacity);
+            }
+
+            System.arraycopy(key, 0, keys, group * keyCount, keyCount);
+            hashes[group] = hash;
+            slots[slot] = group + 1;
+
+            for (Accumulator accumulator : accumulators)
+                accumulator.ensureCapacity(hashes.length);
+
+            // load factor is kept below 0.5
+            if (size * 2 > slots.length)
+                rehash();
+
+            return group;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            final int mask = slots.length - 1;
+
+            for (int group = 0; group < size; group++) {
+                int slot = hashes[group] & mask;
+                while (slots[slot] != 0)
+                    slot = (slot + 1) & mask;
+
+                slots[slot] = group + 1;
+            }
+        }
+    }
+
+    /**
+     * Sums and counts of not null values of column per group
+     */
+    private static final class Accumulator {
+        static final int LONG = 1;
+        static final int DOUBLE = 2;
+        static final int DECIMAL = 4;
+
+        private final String columnName;
+        private long[] longSums = new long[16];
+        private double[] doubleSums = new double[16];
+        private BigDecimal[] decimalSums;
+        private long[] counts = new long[16];
+        private int kinds;
+
+        Accumulator(String columnName) {
+            this.columnName = columnName;
+        }
+
+        int getKinds() {
+            return kinds;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > counts.length) {
+                longSums = Arrays.copyOf(longSums, capacity);
+                doubleSums = Arrays.copyOf(doubleSums, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+
+                if (decimalSums != null)
+                    decimalSums = Arrays.copyOf(decimalSums, capacity);
+            }
+        }
+
+        void add(int group, Object value) {
+            if (value == null)
+                return;
+
+            final Class valueClass = value.getClass();
+
+            if (valueClass == Integer.class || valueClass == Long.class || valueClass == Short.class || valueClass == Byte.class) {
+                longSums[group] += ((Number) value).longValue();
+                kinds |= LONG;
+            } else if (valueClass == Double.class || valueClass == Float.class) {
+                doubleSums[group] += ((Number) value).doubleValue();
+                kinds |= DOUBLE;
+            } else if (value instanceof BigDecimal) {
+                addDecimal(group, (BigDecimal) value);
+            } else if (value instanceof BigInteger) {
+                addDecimal(group, new BigDecimal((BigInteger) value));
+            } else if (value instanceof Number) {
+                doubleSums[group] += ((Number) value).doubleValue();
+                kinds |= DOUBLE;
+            } else {
+                throw new GroovyException("Value of column " + columnName + " is not a number: " + value);
+            }
+
+            counts[group]++;
+        }
+
+        private void addDecimal(int group, BigDecimal value) {
+            if (decimalSums == null)
+                decimalSums = new BigDecimal[counts.length];
+
+            decimalSums[group] = decimalSums[group] != null ? decimalSums[group].add(value) : value;
+            kinds |= DECIMAL;
+        }
+
+        void merge(int group, Accumulator other, int otherGroup) {
+            longSums[group] += other.longSums[otherGroup];
+            doubleSums[group] += other.doubleSums[otherGroup];
+            counts[group] += other.counts[otherGroup];
+
+            if (other.decimalSums != null && other.decimalSums[otherGroup] != null)
+                addDecimal(group, other.decimalSums[otherGroup]);
+
+            kinds |= other.kinds;
+        }
+
+        /**
+         * @param kinds kinds of values of all groups (result class)
+         * @return sum or null if group has no values
+         */
+        Object getSum(int group, int kinds) {
+            if (counts[group] == 0)
+                return null;
+
+            if ((kinds & DECIMAL) != 0) {
+                BigDecimal sum = decimalSums[group] != null ? decimalSums[group] : BigDecimal.ZERO;
+                if (longSums[group] != 0)
+                    sum = sum.add(BigDecimal.valueOf(longSums[group]));
+
+                if (doubleSums[group] != 0)
+                    sum = sum.add(BigDecimal.valueOf(doubleSums[group]));
+
+                return sum;
+            }
+
+            if ((kinds & DOUBLE) != 0)
+                return doubleSums[group] + longSums[group];
+
+            return longSums[group];
+        }
+
+        /**
+         * @param kinds kinds of values of all groups (result class)
+         * @return average or null if group has no values
+         */
+        Object getAverage(int group, int kinds) {
+            final Object sum = getSum(group, kinds);
+            if (sum == null)
+                return null;
+
+            if (sum instanceof BigDecimal)
+                return ((BigDecimal) sum).divide(BigDecimal.valueOf(counts[group]), MathContext.DECIMAL128);
+
+            return ((Number) sum).doubleValue() / counts[group];
+        }
+    }
+}
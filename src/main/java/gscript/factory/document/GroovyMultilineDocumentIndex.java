@@ -0,0 +1,283 @@
+package gscript.factory.document;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash index of document column.
+ * <p>
+ * Finds rows whose value is equal to given value in terms of
+ * {@link gscript.factory.document.query.criterion.GroovyMultilineDocumentObjectComparator}
+ * (same class values are compared with compareTo, values of different classes are compared as strings).
+ * Found rows may contain extra rows, so callers check values of found lines.
+ */
+public final class GroovyMultilineDocumentIndex {
+
+    private final GroovyMultilineDocument document;
+    private final String columnName;
+
+    private final Map<Class, Map<Object, Rows>> valueRows = new HashMap<>();
+    private final Rows nullRows = new Rows();
+    private boolean valid;
+
+    GroovyMultilineDocumentIndex(GroovyMultilineDocument document, String columnName) {
+        this.document = document;
+        this.columnName = columnName;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * Find rows with value
+     *
+     * @param value value
+     * @return sorted row numbers
+     */
+    public int[] getRows(Object value) {
+        build();
+
+        if (value == null)
+            return nullRows.toArray();
+
+        final Rows rows = new Rows();
+        final String valueAsString = value.toString();
+
+        for (Map.Entry<Class, Map<Object, Rows>> entry : valueRows.entrySet()) {
+            final Class keyClass = entry.getKey();
+            final Map<Object, Rows> keyRows = entry.getValue();
+
+            if (keyClass == value.getClass()) {
+                rows.addAll(keyRows.get(getKey(value)));
+            } else {
+                // values of different classes are equal if their strings are equal
+                final Object parsedValue = parseValue(keyClass, valueAsString);
+
+                if (parsedValue != null) {
+                    rows.addAll(keyRows.get(getKey(parsedValue)));
+                } else if (!isParseable(keyClass)) {
+                    for (Map.Entry<Object, Rows> keyEntry : keyRows.entrySet())
+                        if (keyEntry.getKey().toString().equals(valueAsString))
+                            rows.addAll(keyEntry.getValue());
+                }
+            }
+        }
+
+        return rows.toArray();
+    }
+
+    /**
+     * Find rows with one of values
+     *
+     * @param values values
+     * @return sorted row numbers
+     */
+    public int[] getRowsOfAny(Object... values) {
+        final Rows rows = new Rows();
+        for (Object value : values)
+            rows.addAll(getRows(value));
+
+        return rows.toArray();
+    }
+
+    void add(int row, Object value) {
+        if (!valid)
+            return;
+
+        if (value == null) {
+            nullRows.add(row);
+        } else {
+            Map<Object, Rows> keyRows = valueRows.get(value.getClass());
+            if (keyRows == null) {
+                keyRows = new HashMap<>();
+                valueRows.put(value.getClass(), keyRows);
+            }
+
+            final Object key = getKey(value);
+            Rows rows = keyRows.get(key);
+            if (rows == null) {
+                rows = new Rows();
+                keyRows.put(key, rows);
+            }
+
+            rows.add(row);
+        }
+    }
+
+    void remove(int row, Object value) {
+        if (!valid)
+            return;
+
+        if (value == null) {
+            nullRows.remove(row);
+        } else {
+            final Map<Object, Rows> keyRows = valueRows.get(value.getClass());
+            if (keyRows != null) {
+                final Object key = getKey(value);
+                final Rows rows = keyRows.get(key);
+
+                if (rows != null) {
+                    rows.remove(row);
+                    if (rows.size == 0)
+                        keyRows.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Index will be rebuilt on next use (column values were cast)
+     */
+    void invalidate() {
+        valid = false;
+        valueRows.clear();
+        nullRows.clear();
+    }
+
+    void build() {
+        if (valid)
+            return;
+
+        valid = true;
+        for (GroovyMultilineDocument.Line line : document.getLines())
+            if (line.containsKey(columnName))
+                add(line.getRow(), line.get(columnName));
+    }
+
+    private static Object getKey(Object value) {
+        if (value instanceof BigDecimal)
+            return ((BigDecimal) value).signum() == 0 ? BigDecimal.ZERO : ((BigDecimal) value).stripTrailingZeros();
+
+        if (!(value instanceof Comparable))
+            return value.toString();
+
+        return value;
+    }
+
+    private static boolean isParseable(Class valueClass) {
+        return valueClass == String.class || valueClass == Integer.class || valueClass == Long.class ||
+                valueClass == Short.class || valueClass == Byte.class || valueClass == BigInteger.class ||
+                valueClass == BigDecimal.class || valueClass == Double.class || valueClass == Float.class ||
+                valueClass == Boolean.class;
+    }
+
+    /**
+     * @return value of valueClass whose string is s, or null
+     */
+    private static Object parseValue(Class valueClass, String s) {
+        try {
+            final Object value;
+
+            if (valueClass == String.class)
+                value = s;
+            else if (valueClass == Integer.class)
+                value = Integer.valueOf(s);
+            else if (valueClass == Long.class)
+                value = Long.valueOf(s);
+            else if (valueClass == Short.class)
+                value = Short.valueOf(s);
+            else if (valueClass == Byte.class)
+                value = Byte.valueOf(s);
+            else if (valueClass == BigInteger.class)
+                value = new BigInteger(s);
+            else if (valueClass == BigDecimal.class)
+                value = new BigDecimal(s);
+            else if (valueClass == Double.class)
+                value = Double.valueOf(s);
+            else if (valueClass == Float.class)
+                value = Float.valueOf(s);
+            else if (valueClass == Boolean.class)
+                value = Boolean.valueOf(s);
+            else
+                return null;
+
+            return value.toString().equals(s) ? value : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sorted set of row numbers
+     */
+    static final class Rows {
+        private int[] rows = new int[4];
+        private int size;
+
+        void add(int row) {
+            // rows are mostly added in order
+            if (size == 0 || rows[size - 1] < row) {
+                if (size == rows.length)
+                    rows = Arrays.copyOf(rows, size + (size >> 1) + 1);
+
+                rows[size++] = row;
+                return;
+            }
+
+            final int index = Arrays.binarySearch(rows, 0, size, row);
+            if (index >= 0)
+                return;
+
+            final int insertIndex = -index - 1;
+            if (size == rows.length)
+                rows = Arrays.copyOf(rows, size + (size >> 1) + 1);
+
+            System.arraycopy(rows, insertIndex, rows, insertIndex + 1, size - insertIndex);
+            rows[insertIndex] = row;
+            size++;
+        }
+
+        void addAll(Rows other) {
+            if (other != null)
+                addAll(other.toArray());
+        }
+
+        void addAll(int[] other) {
+            if (size == 0) {
+                rows = other.clone();
+                size = other.length;
+                return;
+            }
+
+            // merge sorted arrays
+            final int[] merged = new int[size + other.length];
+            int i = 0, j = 0, k = 0;
+            while (i < size || j < other.length) {
+                final int row;
+                if (j >= other.length || i < size && rows[i] < other[j])
+                    row = rows[i++];
+                else if (i >= size || other[j] < rows[i])
+                    row = other[j++];
+                else {
+                    row = rows[i++];
+                    j++;
+                }
+
+                merged[k++] = row;
+            }
+
+            rows = merged;
+            size = k;
+        }
+
+        void remove(int row) {
+            final int index = Arrays.binarySearch(rows, 0, size, row);
+            if (index >= 0) {
+                System.arraycopy(rows, index + 1, rows, index, size - index - 1);
+                size--;
+            }
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(rows, size);
+        }
+    }
+}
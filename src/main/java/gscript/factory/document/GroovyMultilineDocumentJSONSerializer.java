@@ -0,0 +1,293 @@
+package gscript.factory.document;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import gscript.Factory;
+import gscript.GroovyException;
+import groovy.lang.Closure;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Streaming JSON export and import: document is written and read value by value, no JSON tree is built.
+ * <p>
+ * JSON mode writes the same structure as GroovyMultilineDocument.toJSON (head values as strings and
+ * "lines" array of line objects). NDJSON mode writes one line object per text line (head values are not written).
+ * Null values are omitted, dates are written as dd.MM.yyyy[ HH:mm:ss] strings.
+ * <p>
+ * On import integer numbers are loaded as Integer, Long or BigInteger, other numbers as exact BigDecimal,
+ * strings in date format as Date, nested objects and arrays as maps and lists.
+ */
+public final class GroovyMultilineDocumentJSONSerializer {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * JSON factory is thread safe and shared (generators and parsers are created per file)
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Factory factory;
+    private final GroovyMultilineDocumentDateFormatter dateFormatter = new GroovyMultilineDocumentDateFormatter();
+
+    public GroovyMultilineDocumentJSONSerializer(Factory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Save document to JSON file (UTF-8)
+     *
+     * @param ndjson write one line object per text line
+     */
+    public void saveToFile(GroovyMultilineDocument doc, File file, boolean ndjson) {
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+            final JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream, JsonEncoding.UTF8);
+            try {
+                write(doc, generator, ndjson);
+            } finally {
+                generator.close();
+            }
+        } catch (IOException e) {
+            throw new GroovyException("JSON serialization error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write document to writer (writer is flushed, but not closed)
+     *
+     * @param ndjson write one line object per text line
+     */
+    public void write(GroovyMultilineDocument doc, Writer writer, boolean ndjson) {
+        try {
+            final JsonGenerator generator = JSON_FACTORY.createGenerator(writer);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            try {
+                write(doc, generator, ndjson);
+            } finally {
+                generator.close();
+            }
+        } catch (IOException e) {
+            throw new GroovyException("JSON serialization error: " + e.getMessage(), e);
+        }
+    }
+
+    private void write(GroovyMultilineDocument doc, JsonGenerator generator, boolean ndjson) throws IOException {
+        if (ndjson) {
+            // line objects are separated by new lines only
+            generator.setRootValueSeparator(null);
+
+            for (GroovyMultilineDocument.Line line : doc.getLines()) {
+                writeLine(generator, line);
+                generator.writeRaw('\n');
+            }
+
+            return;
+        }
+
+        generator.writeStartObject();
+
+        for (Map.Entry<String, Object> headEntry : doc.entrySet()) {
+            final Object value = headEntry.getValue();
+            if (value == null)
+                continue;
+
+            generator.writeFieldName(headEntry.getKey());
+
+            if (value instanceof Date)
+                generator.writeString(dateFormatter.getChars(), 0, dateFormatter.format((Date) value));
+            else
+                generator.writeString(value.toString());
+        }
+
+        if (!doc.getLines().isEmpty()) {
+            generator.writeArrayFieldStart("lines");
+
+            for (GroovyMultilineDocument.Line line : doc.getLines())
+                writeLine(generator, line);
+
+            generator.writeEndArray();
+        }
+
+        generator.writeEndObject();
+    }
+
+    private void writeLine(JsonGenerator generator, GroovyMultilineDocument.Line line) throws IOException {
+        generator.writeStartObject();
+
+        for (Map.Entry<String, Object> lineEntry : line.entrySet()) {
+            final Object value = lineEntry.getValue();
+            if (value == null)
+                continue;
+
+            generator.writeFieldName(lineEntry.getKey());
+            writeValue(generator, value);
+        }
+
+        generator.writeEndObject();
+    }
+
+    private void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Float) {
+            generator.writeNumber((Float) value);
+        } else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else if (value instanceof Number) {
+            generator.writeNumber(value.toString());
+        } else if (value instanceof Date) {
+            generator.writeString(dateFormatter.getChars(), 0, dateFormatter.format((Date) value));
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+
+    /**
+     * Load head values and lines from JSON file
+     *
+     * @param ndjson file contains one line object per text line
+     */
+    public void loadFromFile(GroovyMultilineDocument doc, File file, boolean ndjson) {
+        load(doc, file, ndjson, null);
+    }
+
+    /**
+     * Pass every line of JSON file to closure (lines are not added to document, head values are added)
+     *
+     * @param ndjson  file contains one line object per text line
+     * @param closure closure with line parameter (map of line values)
+     */
+    public void loadFromFile(GroovyMultilineDocument doc, File file, boolean ndjson, Closure closure) {
+        load(doc, file, ndjson, closure);
+    }
+
+    private void load(GroovyMultilineDocument doc, File file, boolean ndjson, Closure closure) {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            final JsonParser parser = JSON_FACTORY.createParser(inputStream);
+            try {
+                if (ndjson) {
+                    JsonToken token;
+                    while ((token = parser.nextToken()) != null) {
+                        if (token != JsonToken.START_OBJECT)
+                            throw new GroovyException("Line object expected at " + parser.getCurrentLocation());
+
+                        readLine(doc, parser, closure);
+                    }
+
+                    return;
+                }
+
+                if (parser.nextToken() != JsonToken.START_OBJECT)
+                    throw new GroovyException("Document object expected");
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String name = parser.getCurrentName();
+                    final JsonToken token = parser.nextToken();
+
+                    if ("lines".equals(name) && token == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() == JsonToken.START_OBJECT)
+                            readLine(doc, parser, closure);
+                    } else if (token == JsonToken.VALUE_STRING) {
+                        // head values are exported as strings
+                        doc.put(name, GroovyMultilineDocumentCSVValueParser.parseValue(parser.getText()));
+                    } else {
+                        doc.put(name, readValue(parser, token));
+                    }
+                }
+            } finally {
+                parser.close();
+            }
+        } catch (GroovyException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new GroovyException("JSON load error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read line object (parser is at its start) into new document line or map passed to closure
+     */
+    private static void readLine(GroovyMultilineDocument doc, JsonParser parser, Closure closure) throws IOException {
+        if (closure != null) {
+            final Map<String, Object> line = new LinkedHashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                line.put(name, readValue(parser, parser.nextToken()));
+            }
+
+            closure.call(line);
+        } else {
+            final GroovyMultilineDocument.Line line = doc.createLine();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                line.put(name, readValue(parser, parser.nextToken()));
+            }
+        }
+    }
+
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING: {
+                final String value = parser.getText();
+                final int length = value.length();
+                if (length == 10 || length == 19) {
+                    final Date date = GroovyMultilineDocumentCSVValueParser.parseDateValue(value);
+                    if (date != null)
+                        return date;
+                }
+
+                return value;
+            }
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT:
+                        return parser.getIntValue();
+                    case LONG:
+                        return parser.getLongValue();
+                    default:
+                        return parser.getBigIntegerValue();
+                }
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDecimalValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            case START_OBJECT: {
+                final Map<String, Object> map = new LinkedHashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String name = parser.getCurrentName();
+                    map.put(name, readValue(parser, parser.nextToken()));
+                }
+
+                return map;
+            }
+            case START_ARRAY: {
+                final List<Object> list = new ArrayList<>();
+                JsonToken itemToken;
+                while ((itemToken = parser.nextToken()) != JsonToken.END_ARRAY && itemToken != null)
+                    list.add(readValue(parser, itemToken));
+
+                return list;
+            }
+            default:
+                throw new GroovyException("Unexpected JSON token " + token + " at " + parser.getCurrentLocation());
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package gscript.factory.document;
+
+import gscript.Factory;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash join of two documents.
+ * <p>
+ * Hash table is built on lines of smaller document, lines of other document are looked up in it.
+ * Result lines are ordered as left document lines (lines of right document without pair are the last).
+ */
+final class GroovyMultilineDocumentJoin {
+
+    /**
+     * Prefix of right document column which has the same name as left document column
+     */
+    static final String DEFAULT_RIGHT_PREFIX = "RIGHT_";
+
+    private final GroovyMultilineDocument left;
+    private final GroovyMultilineDocument right;
+    private final GroovyMultilineDocument.JoinType joinType;
+
+    /**
+     * Positions of joined left and right lines (-1 - no line)
+     */
+    private int[] leftPositions = new int[16];
+    private int[] rightPositions = new int[16];
+    private int size;
+
+    GroovyMultilineDocumentJoin(GroovyMultilineDocument left, GroovyMultilineDocument right, GroovyMultilineDocument.JoinType joinType) {
+        this.left = left;
+        this.right = right;
+        this.joinType = joinType;
+    }
+
+    /**
+     * @param rightPrefix prefix of all right document columns (null - only columns with the same names are prefixed)
+     * @return joined document
+     */
+    GroovyMultilineDocument join(Factory factory, String leftColumnName, String rightColumnName, String rightPrefix) {
+        final List<GroovyMultilineDocument.Line> leftLines = left.getLines();
+        final List<GroovyMultilineDocument.Line> rightLines = right.getLines();
+        final GroovyMultilineDocument.Column leftColumn = left.getColumns().get(leftColumnName);
+        final GroovyMultilineDocument.Column rightColumn = right.getColumns().get(rightColumnName);
+
+        final boolean includeLeft = joinType == GroovyMultilineDocument.JoinType.LEFT || joinType == GroovyMultilineDocument.JoinType.FULL;
+        final boolean includeRight = joinType == GroovyMultilineDocument.JoinType.RIGHT || joinType == GroovyMultilineDocument.JoinType.FULL;
+
+        if (leftLines.size() <= rightLines.size())
+            match(leftLines, leftColumn, includeLeft, rightLines, rightColumn, includeRight, true,
+                    getExpectedKeyCount(left, leftColumnName, leftLines.size()));
+        else
+            match(rightLines, rightColumn, includeRight, leftLines, leftColumn, includeLeft, false,
+                    getExpectedKeyCount(right, rightColumnName, rightLines.size()));
+
+        sortByLeftPositions();
+        return createDocument(factory, leftLines, rightLines, rightPrefix);
+    }
+
+    /**
+     * Estimate number of distinct key values by column statistics
+     *
+     * @return number of keys or 0 if column has no statistics
+     */
+    private static int getExpectedKeyCount(GroovyMultilineDocument document, String columnName, int lineCount) {
+        final GroovyMultilineDocumentColumnStats stats = document.getColumnStats(columnName);
+        return stats != null ? (int) Math.min(stats.getDistinctCount(), lineCount) : 0;
+    }
+
+    /**
+     * Build hash table on build lines and look up probe lines
+     *
+     * @param buildIsLeft build lines are left document lines
+     * @param keyCount    expected number of distinct build keys (0 - unknown)
+     */
+    private void match(List<GroovyMultilineDocument.Line> buildLines, GroovyMultilineDocument.Column buildColumn, boolean includeBuild,
+                       List<GroovyMultilineDocument.Line> probeLines, GroovyMultilineDocument.Column probeColumn, boolean includeProbe,
+                       boolean buildIsLeft, int keyCount) {
+        final KeyTable table = new KeyTable(buildLines.size(), keyCount);
+        if (buildColumn != null)
+            for (int i = 0; i < buildLines.size(); i++)
+                table.add(buildLines.get(i).getValue(buildColumn), i);
+
+        final boolean[] matched = new boolean[buildLines.size()];
+
+        for (int i = 0; i < probeLines.size(); i++) {
+            final Object value = probeColumn != null ? probeLines.get(i).getValue(probeColumn) : null;
+
+            int position = table.getFirst(value);
+            if (position < 0) {
+                if (includeProbe)
+                    addPair(buildIsLeft, -1, i);
+
+                continue;
+            }
+
+            while (position >= 0) {
+                matched[position] = true;
+                addPair(buildIsLeft, position, i);
+                position = table.getNext(position);
+            }
+        }
+
+        if (includeBuild)
+            for (int i = 0; i < matched.length; i++)
+                if (!matched[i])
+                    addPair(buildIsLeft, i, -1);
+    }
+
+    private void addPair(boolean buildIsLeft, int buildPosition, int probePosition) {
+        if (size == leftPositions.length) {
+            leftPositions = Arrays.copyOf(leftPositions, size * 2);
+            rightPositions = Arrays.copyOf(rightPositions, size * 2);
+        }
+
+        leftPositions[size] = buildIsLeft ? buildPosition : probePosition;
+        rightPositions[size] = buildIsLeft ? probePosition : buildPosition;
+        size++;
+    }
+
+    /**
+     * Stable counting sort of pairs by left line position, pairs without left line are the last
+     */
+    private void sortByLeftPositions() {
+        final int leftCount = left.getLinesCount();
+        final int[] starts = new int[leftCount + 2];
+
+        for (int i = 0; i < size; i++)
+            starts[(leftPositions[i] >= 0 ? leftPositions[i] : leftCount) + 1]++;
+
+        for (int i = 1; i < starts.length; i++)
+            starts[i] += starts[i - 1];
+
+        final int[] sortedLeft = new int[size];
+        final int[] sortedRight = new int[size];
+        for (int i = 0; i < size; i++) {
+            final int target = starts[leftPositions[i] >= 0 ? leftPositions[i] : leftCount]++;
+            sortedLeft[target] = leftPositions[i];
+            sortedRight[target] = rightPositions[i];
+        }
+
+        leftPositions = sortedLeft;
+        rightPositions = sortedRight;
+    }
+
+    private GroovyMultilineDocument createDocument(Factory factory,
+                                                   List<GroovyMultilineDocument.Line> leftLines,
+                                                   List<GroovyMultilineDocument.Line> rightLines,
+                                                   String rightPrefix) {
+        final GroovyMultilineDocument result = new GroovyMultilineDocument(factory);
+
+        final GroovyMultilineDocument.Column[] leftColumns = left.getColumns().values().toArray(new GroovyMultilineDocument.Column[0]);
+        for (GroovyMultilineDocument.Column column : leftColumns)
+            result.createColumn(column.getName(), column.getTitle(), column.getJavaClass(), column.getSize(), column.getScale());
+
+        final Map<GroovyMultilineDocument.Column, String> rightNames = new LinkedHashMap<>();
+        for (GroovyMultilineDocument.Column column : right.getColumns().values()) {
+            final String name;
+            if (rightPrefix != null)
+                name = rightPrefix + column.getName();
+            else if (left.getColumns().containsKey(column.getName()))
+                name = DEFAULT_RIGHT_PREFIX + column.getName();
+            else
+                name = column.getName();
+
+            rightNames.put(column, name);
+            result.createColumn(name, column.getTitle(), column.getJavaClass(), column.getSize(), column.getScale());
+        }
+
+        final GroovyMultilineDocument.Column[] rightColumns = rightNames.keySet().toArray(new GroovyMultilineDocument.Column[0]);
+        final String[] rightColumnNames = rightNames.values().toArray(new String[0]);
+
+        for (int i = 0; i < size; i++) {
+            final GroovyMultilineDocument.Line line = result.createLine();
+            final GroovyMultilineDocument.Line leftLine = leftPositions[i] >= 0 ? leftLines.get(leftPositions[i]) : null;
+            final GroovyMultilineDocument.Line rightLine = rightPositions[i] >= 0 ? rightLines.get(rightPositions[i]) : null;
+
+            for (GroovyMultilineDocument.Column column : leftColumns)
+                line.put(column.getName(), leftLine != null ? leftLine.getValue(column) : null);
+
+            for (int c = 0; c < rightColumns.length; c++)
+                line.put(rightColumnNames[c], rightLine != null ? rightLine.getValue(rightColumns[c]) : null);
+        }
+
+        return result;
+    }
+
+    /**
+     * Open addressing hash table of key values, positions with equal key are chained in lines order
+     */
+    private static final class KeyTable {
+        private Object[] keys;
+        private int[] hashes;
+        private int[] firsts;
+        private int[] lasts;
+        private int keyCount;
+
+        /**
+         * Key number + 1 (0 - empty slot)
+         */
+        private final int[] slots;
+        private final int[] nexts;
+
+        /**
+         * @param capacity         number of positions
+         * @param expectedKeyCount expected number of distinct keys (0 - unknown)
+         */
+        KeyTable(int capacity, int expectedKeyCount) {
+            int slotCount = 16;
+            while (slotCount < capacity * 2)
+                slotCount <<= 1;
+
+            final int keyCapacity = Math.max(16, expectedKeyCount);
+
+            slots = new int[slotCount];
+            nexts = new int[capacity];
+            keys = new Object[keyCapacity];
+            hashes = new int[keyCapacity];
+            firsts = new int[keyCapacity];
+            lasts = new int[keyCapacity];
+        }
+
+        /**
+         * Null values are not added (null key does not match any key)
+         */
+        void add(Object value, int position) {
+            if (value == null)
+                return;
+
+            nexts[position] = -1;
+
+            final int hash = GroovyMultilineDocumentKeys.hash(value);
+            final int slot = findSlot(value, hash);
+
+            if (slots[slot] != 0) {
+                final int key = slots[slot] - 1;
+                nexts[lasts[key]] = position;
+                lasts[key] = position;
+                return;
+            }
+
+            if (keyCount == keys.length) {
+                keys = Arrays.copyOf(keys, keyCount * 2);
+                hashes = Arrays.copyOf(hashes, keyCount * 2);
+                firsts = Arrays.copyOf(firsts, keyCount * 2);
+                lasts = Arrays.copyOf(lasts, keyCount * 2);
+            }
+
+            keys[keyCount] = value;
+            hashes[keyCount] = hash;
+            firsts[keyCount] = position;
+            lasts[keyCount] = position;
+            slots[slot] = ++keyCount;
+        }
+
+        /**
+         * @return first position with key or -1
+         */
+        int getFirst(Object value) {
+            if (value == null)
+                return -1;
+
+            final int slot = findSlot(value, GroovyMultilineDocumentKeys.hash(value));
+            return slots[slot] != 0 ? firsts[slots[slot] - 1] : -1;
+        }
+
+        /**
+         * @return next position with the same key or -1
+         */
+        int getNext(int position) {
+            return nexts[position];
+        }
+
+        /**
+         * @return slot of key or empty slot for key
+         */
+        private int findSlot(Object value, int hash) {
+            final int mask = slots.length - 1;
+            int slot = hash & mask;
+
+            while (slots[slot] != 0) {
+                final int key = slots[slot] - 1;
+                if (hashes[key] == hash && GroovyMultilineDocumentKeys.equals(keys[key], value))
+                    return slot;
+
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package gscript.factory.document;
+
+import java.math.BigDecimal;
+
+/**
+ * Equality and hashing of key values for grouping and joining lines.
+ * <p>
+ * Keys are equal if values are equal, integer values of different classes and decimal values
+ * are equal if they are equal numbers (1 = 1L, 1.0 = 1.00).
+ */
+final class GroovyMultilineDocumentKeys {
+
+    private GroovyMultilineDocumentKeys() {
+    }
+
+    static boolean equals(Object value1, Object value2) {
+        if (value1 == null)
+            return value2 == null;
+
+        if (value1 instanceof BigDecimal && value2 instanceof BigDecimal)
+            return ((BigDecimal) value1).compareTo((BigDecimal) value2) == 0;
+
+        if (isInteger(value1) && isInteger(value2))
+            return ((Number) value1).longValue() == ((Number) value2).longValue();
+
+        return value1.equals(value2);
+    }
+
+    /**
+     * @return hash of value for power of two hash tables
+     */
+    static int hash(Object value) {
+        return finish(mix(0, value));
+    }
+
+    /**
+     * Murmur3 hash of key values hash codes (simple polynomial hash gives equal hashes for similar keys)
+     *
+     * @return hash of values for power of two hash tables
+     */
+    static int hash(Object[] values) {
+        int hash = 0;
+        for (Object value : values)
+            hash = mix(hash, value);
+
+        return finish(hash);
+    }
+
+    private static int mix(int hash, Object value) {
+        int k = hashCode(value) * 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15) * 0x1b873593;
+
+        return Integer.rotateLeft(hash ^ k, 13) * 5 + 0xe6546b64;
+    }
+
+    private static int finish(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hashCode(Object value) {
+        if (value == null)
+            return 0;
+
+        if (value instanceof BigDecimal)
+            return ((BigDecimal) value).signum() == 0 ? 0 : ((BigDecimal) value).stripTrailingZeros().hashCode();
+
+        if (isInteger(value)) {
+            final long longValue = ((Number) value).longValue();
+            return (int) (longValue ^ (longValue >>> 32));
+        }
+
+        return value.hashCode();
+    }
+
+    private static boolean isInteger(Object value) {
+        final Class valueClass = value.getClass();
+        return valueClass == Integer.class || valueClass == Long.class || valueClass == Short.class || valueClass == Byte.class;
+    }
+}
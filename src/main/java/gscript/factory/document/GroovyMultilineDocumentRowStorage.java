@@ -0,0 +1,204 @@
+package gscript.factory.document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Default line storage: every row is an array of values indexed by column ordinal
+ * (column names are kept once by the document).
+ * <p>
+ * Fields of row are iterated in order they were put. Rows filled in column order need nothing else,
+ * other rows keep array of their slots in put order.
+ */
+final class GroovyMultilineDocumentRowStorage implements GroovyMultilineDocumentStorage {
+
+    /**
+     * Marks value that was put as null (empty slot means value was not put)
+     */
+    private static final Object NULL = new Object();
+
+    private final List<Object[]> rows = new ArrayList<>();
+    private GroovyMultilineDocument.Column[] slotColumns = new GroovyMultilineDocument.Column[0];
+
+    /**
+     * Slots of rows in put order (null - slots were put in column order), created for first such row
+     */
+    private List<int[]> slotOrders;
+
+    @Override
+    public int createRow() {
+        rows.add(new Object[slotColumns.length]);
+        if (slotOrders != null)
+            slotOrders.add(null);
+
+        return rows.size() - 1;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public boolean contains(int row, GroovyMultilineDocument.Column column) {
+        final Object[] values = rows.get(row);
+        final int index = column.getIndex();
+        return index < values.length && values[index] != null;
+    }
+
+    @Override
+    public Object get(int row, GroovyMultilineDocument.Column column) {
+        final Object[] values = rows.get(row);
+        final int index = column.getIndex();
+        return index < values.length ? unmask(values[index]) : null;
+    }
+
+    @Override
+    public Object set(int row, GroovyMultilineDocument.Column column, Object value) {
+        Object[] values = rows.get(row);
+        final int index = column.getIndex();
+
+        if (index >= slotColumns.length)
+            slotColumns = Arrays.copyOf(slotColumns, index + 1);
+
+        slotColumns[index] = column;
+
+        if (index >= values.length) {
+            values = Arrays.copyOf(values, slotColumns.length);
+            rows.set(row, values);
+        }
+
+        if (values[index] == null)
+            addSlot(row, values, index);
+
+        final Object oldValue = unmask(values[index]);
+        values[index] = value != null ? value : NULL;
+        return oldValue;
+    }
+
+    /**
+     * Keep put order of new slot if it differs from column order
+     */
+    private void addSlot(int row, Object[] values, int index) {
+        int[] order = slotOrders != null ? slotOrders.get(row) : null;
+
+        if (order == null) {
+            int next = index + 1;
+            while (next < values.length && values[next] == null)
+                next++;
+
+            // slot is after all put slots
+            if (next == values.length)
+                return;
+
+            order = new int[0];
+            for (int i = 0; i < values.length; i++)
+                if (values[i] != null)
+                    order = append(order, i);
+
+            if (slotOrders == null) {
+                slotOrders = new ArrayList<>(rows.size());
+                for (int i = 0; i < rows.size(); i++)
+                    slotOrders.add(null);
+            }
+        }
+
+        slotOrders.set(row, append(order, index));
+    }
+
+    private static int[] append(int[] order, int index) {
+        final int[] result = Arrays.copyOf(order, order.length + 1);
+        result[order.length] = index;
+        return result;
+    }
+
+    @Override
+    public Object remove(int row, GroovyMultilineDocument.Column column) {
+        final Object[] values = rows.get(row);
+        final int index = column.getIndex();
+
+        if (index >= values.length)
+            return null;
+
+        if (values[index] == null)
+            return null;
+
+        final int[] order = slotOrders != null ? slotOrders.get(row) : null;
+        if (order != null) {
+            final int[] newOrder = new int[order.length - 1];
+            int j = 0;
+            for (int slot : order)
+                if (slot != index)
+                    newOrder[j++] = slot;
+
+            slotOrders.set(row, newOrder);
+        }
+
+        final Object oldValue = unmask(values[index]);
+        values[index] = null;
+        return oldValue;
+    }
+
+    @Override
+    public Iterator<GroovyMultilineDocument.Column> columns(int row) {
+        final int[] order = slotOrders != null ? slotOrders.get(row) : null;
+        if (order != null) {
+            final List<GroovyMultilineDocument.Column> columns = new ArrayList<>(order.length);
+            for (int slot : order)
+                columns.add(slotColumns[slot]);
+
+            return Collections.unmodifiableList(columns).iterator();
+        }
+
+        final Object[] values = rows.get(row);
+
+        return new Iterator<GroovyMultilineDocument.Column>() {
+            private int next = seek(0);
+
+            private int seek(int from) {
+                while (from < values.length && values[from] == null)
+                    from++;
+
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < values.length;
+            }
+
+            @Override
+            public GroovyMultilineDocument.Column next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                final GroovyMultilineDocument.Column column = slotColumns[next];
+                next = seek(next + 1);
+                return column;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public int size(int row) {
+        int size = 0;
+        for (Object value : rows.get(row))
+            if (value != null)
+                size++;
+
+        return size;
+    }
+
+    private static Object unmask(Object value) {
+        return value == NULL ? null : value;
+    }
+}
@@ -0,0 +1,250 @@
+package gscript.factory.document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorted index of document column.
+ * <p>
+ * Keeps document rows sorted by column value (null values first, equal values in document order).
+ * Index is rebuilt on first use after lines were changed.
+ * Ranges and sorting are available only when all column values have the same comparable class.
+ */
+public final class GroovyMultilineDocumentSortedIndex {
+
+    private final GroovyMultilineDocument document;
+    private final String columnName;
+
+    private int[] rows;
+    private Object[] values;
+    private int nullCount;
+    private Class valueClass;
+    private boolean valid;
+
+    GroovyMultilineDocumentSortedIndex(GroovyMultilineDocument document, String columnName) {
+        this.document = document;
+        this.columnName = columnName;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * @return class of column values, or null if values are of different classes
+     */
+    public Class getValueClass() {
+        build();
+        return valueClass;
+    }
+
+    /**
+     * Find rows with values in range. Null bound means unbounded range side,
+     * lines with null values are included only if left side is unbounded.
+     *
+     * @param from        left value (or null)
+     * @param includeFrom include left value
+     * @param to          right value (or null)
+     * @param includeTo   include right value
+     * @return sorted rows or null if index can not be used for given values
+     */
+    public int[] getRowsBetween(Object from, boolean includeFrom, Object to, boolean includeTo) {
+        build();
+
+        if (!isComparableWith(from) || !isComparableWith(to))
+            return null;
+
+        final int start = from == null ? 0 : (includeFrom ? lowerBound(from) : upperBound(from));
+        final int end = to == null ? rows.length : (includeTo ? upperBound(to) : lowerBound(to));
+
+        if (start >= end)
+            return new int[0];
+
+        final int[] result = Arrays.copyOfRange(rows, start, end);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Sort document lines by column value (as stable sort of lines in document order)
+     *
+     * @param lines      lines of document
+     * @param descending descending order
+     * @return sorted lines or null if index can not be used
+     */
+    public List<GroovyMultilineDocument.Line> sort(List<GroovyMultilineDocument.Line> lines, boolean descending) {
+        build();
+
+        if (valueClass == null && nullCount != rows.length)
+            return null;
+
+        final GroovyMultilineDocument.Line[] rowLines = new GroovyMultilineDocument.Line[document.getRowCount()];
+        for (GroovyMultilineDocument.Line line : lines) {
+            if (line.getDocument() != document || rowLines[line.getRow()] != null)
+                return null;
+
+            rowLines[line.getRow()] = line;
+        }
+
+        final List<GroovyMultilineDocument.Line> result = new ArrayList<>(lines.size());
+
+        if (!descending) {
+            for (int row : rows)
+                if (rowLines[row] != null)
+                    result.add(rowLines[row]);
+        } else {
+            // groups of equal values are taken from the end, lines of group keep document order
+            int end = rows.length;
+            while (end > 0) {
+                int start = end - 1;
+                while (start > 0 && compare(values[start - 1], values[end - 1]) == 0)
+                    start--;
+
+                for (int i = start; i < end; i++)
+                    if (rowLines[rows[i]] != null)
+                        result.add(rowLines[rows[i]]);
+
+                end = start;
+            }
+        }
+
+        return result.size() == lines.size() ? result : null;
+    }
+
+    /**
+     * Index will be rebuilt on next use
+     */
+    void invalidate() {
+        valid = false;
+        rows = null;
+        values = null;
+    }
+
+    void build() {
+        if (valid)
+            return;
+
+        final List<GroovyMultilineDocument.Line> lines = document.getLines();
+        final int size = lines.size();
+
+        values = new Object[size];
+        rows = new int[size];
+        valueClass = null;
+        nullCount = 0;
+
+        boolean sameClass = true;
+        for (int i = 0; i < size; i++) {
+            final GroovyMultilineDocument.Line line = lines.get(i);
+            final Object value = line.get(columnName);
+
+            rows[i] = line.getRow();
+            values[i] = value;
+
+            if (value == null) {
+                nullCount++;
+            } else if (valueClass == null) {
+                valueClass = value.getClass();
+            } else if (valueClass != value.getClass()) {
+                sameClass = false;
+            }
+        }
+
+        if (!sameClass || valueClass != null && !Comparable.class.isAssignableFrom(valueClass))
+            valueClass = null;
+
+        if (valueClass != null || nullCount == size) {
+            final int[] positions = new int[size];
+            for (int i = 0; i < size; i++)
+                positions[i] = i;
+
+            sort(positions, new int[size], 0, size);
+
+            final int[] sortedRows = new int[size];
+            final Object[] sortedValues = new Object[size];
+            for (int i = 0; i < size; i++) {
+                sortedRows[i] = rows[positions[i]];
+                sortedValues[i] = values[positions[i]];
+            }
+
+            rows = sortedRows;
+            values = sortedValues;
+        }
+
+        valid = true;
+    }
+
+    private boolean isComparableWith(Object value) {
+        return value == null || valueClass == value.getClass() || valueClass == null && nullCount == rows.length;
+    }
+
+    /**
+     * @return first position with value >= given value
+     */
+    private int lowerBound(Object value) {
+        int low = 0, high = rows.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (compare(values[middle], value) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    /**
+     * @return first position with value > given value
+     */
+    private int upperBound(Object value) {
+        int low = 0, high = rows.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (compare(values[middle], value) <= 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object value1, Object value2) {
+        if (value1 == null)
+            return value2 == null ? 0 : -1;
+
+        if (value2 == null)
+            return 1;
+
+        return ((Comparable) value1).compareTo(value2);
+    }
+
+    /**
+     * Stable merge sort of value positions
+     */
+    private void sort(int[] positions, int[] buffer, int from, int to) {
+        if (to - from < 2)
+            return;
+
+        final int middle = (from + to) >>> 1;
+        sort(positions, buffer, from, middle);
+        sort(positions, buffer, middle, to);
+
+        if (compare(values[positions[middle - 1]], values[positions[middle]]) <= 0)
+            return;
+
+        System.arraycopy(positions, from, buffer, from, to - from);
+
+        int i = from, j = middle, k = from;
+        while (i < middle && j < to)
+            positions[k++] = compare(values[buffer[j]], values[buffer[i]]) < 0 ? buffer[j++] : buffer[i++];
+
+        while (i < middle)
+            positions[k++] = buffer[i++];
+
+        while (j < to)
+            positions[k++] = buffer[j++];
+    }
+}
@@ -0,0 +1,370 @@
+package gscript.factory.document;
+
+import gscript.GroovyException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Line storage which keeps only recently used rows in memory.
+ * <p>
+ * Rows are grouped into pages. When number of pages in memory exceeds the limit, least recently used page
+ * is serialized into the spill file (temporary file which is deleted when storage is closed)
+ * and is read back when its rows are used again. Space of pages which were moved is reused.
+ * <p>
+ * Spilled page keeps copies of values: changes of mutable values (lists, maps, dates) made in place,
+ * without putting value to line again, are lost when their page is spilled. Values which can't be
+ * written (not serializable objects, nested documents, closures) are rejected when they are put.
+ */
+final class GroovyMultilineDocumentSpillStorage implements GroovyMultilineDocumentStorage, AutoCloseable {
+
+    /**
+     * Number of rows in page = 1 << PAGE_SHIFT
+     */
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    /**
+     * Tag of slot whose value was not put
+     */
+    private static final byte NOT_PUT = 0;
+
+    private final int maxPagesInMemory;
+    private final LinkedHashMap<Integer, Page> pages;
+
+    /**
+     * Offsets and lengths of pages in spill file (-1 - page was not written)
+     */
+    private long[] pageOffsets = new long[0];
+    private int[] pageLengths = new int[0];
+    private int[] pageCapacities = new int[0];
+
+    private GroovyMultilineDocument.Column[] slotColumns = new GroovyMultilineDocument.Column[0];
+    private int rowCount;
+
+    private File spillFile;
+    private RandomAccessFile spillAccess;
+    private FileChannel spillChannel;
+    private long spillLength;
+
+    /**
+     * Free extents of spill file: offset - length
+     */
+    private final TreeMap<Long, Integer> freeSpace = new TreeMap<>();
+
+    /**
+     * @param maxLinesInMemory max number of rows kept in memory
+     */
+    GroovyMultilineDocumentSpillStorage(int maxLinesInMemory) {
+        this.maxPagesInMemory = Math.max(1, (maxLinesInMemory + PAGE_SIZE - 1) / PAGE_SIZE);
+        this.pages = new LinkedHashMap<Integer, Page>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                if (size() <= maxPagesInMemory)
+                    return false;
+
+                if (eldest.getValue().dirty)
+                    writePage(eldest.getKey(), eldest.getValue());
+
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public synchronized int createRow() {
+        final int row = rowCount++;
+        getPage(row).rows[row & (PAGE_SIZE - 1)] = new Object[0];
+        return row;
+    }
+
+    @Override
+    public synchronized int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public synchronized boolean contains(int row, GroovyMultilineDocument.Column column) {
+        final Object[] values = getRow(row, false);
+        final int index = column.getIndex();
+        return index < values.length && values[index] != null;
+    }
+
+    @Override
+    public synchronized Object get(int row, GroovyMultilineDocument.Column column) {
+        final Object[] values = getRow(row, false);
+        final int index = column.getIndex();
+        return index < values.length ? unmask(values[index]) : null;
+    }
+
+    @Override
+    public synchronized Object set(int row, GroovyMultilineDocument.Column column, Object value) {
+        // value is rejected now, not when its page is spilled
+        GroovyMultilineDocumentValueCodec.checkWritable(value);
+
+        final Page page = getPage(row);
+        Object[] values = page.rows[row & (PAGE_SIZE - 1)];
+        final int index = column.getIndex();
+
+        if (index >= slotColumns.length)
+            slotColumns = Arrays.copyOf(slotColumns, index + 1);
+
+        slotColumns[index] = column;
+
+        if (index >= values.length) {
+            values = Arrays.copyOf(values, slotColumns.length);
+            page.rows[row & (PAGE_SIZE - 1)] = values;
+        }
+
+        final Object oldValue = unmask(values[index]);
+        values[index] = value != null ? value : Page.NULL;
+        page.dirty = true;
+        return oldValue;
+    }
+
+    @Override
+    public synchronized Object remove(int row, GroovyMultilineDocument.Column column) {
+        final Object[] values = getRow(row, true);
+        final int index = column.getIndex();
+
+        if (index >= values.length)
+            return null;
+
+        final Object oldValue = unmask(values[index]);
+        values[index] = null;
+        return oldValue;
+    }
+
+    @Override
+    public synchronized Iterator<GroovyMultilineDocument.Column> columns(int row) {
+        // columns are collected at once, page of row may be spilled while iterating
+        final List<GroovyMultilineDocument.Column> columns = new ArrayList<>();
+        final Object[] values = getRow(row, false);
+        for (int i = 0; i < values.length; i++)
+            if (values[i] != null)
+                columns.add(slotColumns[i]);
+
+        return Collections.unmodifiableList(columns).iterator();
+    }
+
+    @Override
+    public synchronized int size(int row) {
+        int size = 0;
+        for (Object value : getRow(row, false))
+            if (value != null)
+                size++;
+
+        return size;
+    }
+
+    /**
+     * Delete spill file
+     */
+    @Override
+    public synchronized void close() throws Exception {
+        pages.clear();
+
+        if (spillAccess != null) {
+            spillAccess.close();
+            spillAccess = null;
+            spillChannel = null;
+        }
+
+        if (spillFile != null) {
+            if (!spillFile.delete())
+                spillFile.deleteOnExit();
+
+            spillFile = null;
+        }
+    }
+
+    private Object[] getRow(int row, boolean modify) {
+        final Page page = getPage(row);
+        if (modify)
+            page.dirty = true;
+
+        return page.rows[row & (PAGE_SIZE - 1)];
+    }
+
+    private Page getPage(int row) {
+        final int pageNumber = row >>> PAGE_SHIFT;
+
+        Page page = pages.get(pageNumber);
+        if (page == null) {
+            page = pageNumber < pageOffsets.length && pageOffsets[pageNumber] >= 0 ? readPage(pageNumber) : new Page();
+            pages.put(pageNumber, page);
+        }
+
+        return page;
+    }
+
+    private void writePage(int pageNumber, Page page) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+
+            for (Object[] values : page.rows) {
+                if (values == null) {
+                    out.writeInt(-1);
+                    continue;
+                }
+
+                out.writeInt(values.length);
+                for (Object value : values) {
+                    if (value == null)
+                        out.writeByte(NOT_PUT);
+                    else
+                        GroovyMultilineDocumentValueCodec.write(out, unmask(value));
+                }
+            }
+
+            out.flush();
+
+            if (pageNumber >= pageOffsets.length) {
+                final int oldLength = pageOffsets.length;
+                final int newLength = Math.max(pageNumber + 1, oldLength * 2);
+                pageOffsets = Arrays.copyOf(pageOffsets, newLength);
+                pageLengths = Arrays.copyOf(pageLengths, newLength);
+                pageCapacities = Arrays.copyOf(pageCapacities, newLength);
+                Arrays.fill(pageOffsets, oldLength, newLength, -1);
+            }
+
+            final FileChannel channel = getSpillChannel();
+
+            // page is rewritten in place if it fits its old space
+            if (pageOffsets[pageNumber] < 0 || pageCapacities[pageNumber] < bytes.size()) {
+                if (pageOffsets[pageNumber] >= 0)
+                    release(pageOffsets[pageNumber], pageCapacities[pageNumber]);
+
+                pageOffsets[pageNumber] = allocate(bytes.size());
+                pageCapacities[pageNumber] = bytes.size();
+            }
+
+            pageLengths[pageNumber] = bytes.size();
+
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            long position = pageOffsets[pageNumber];
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+
+            page.dirty = false;
+        } catch (IOException e) {
+            throw new GroovyException("Document page can't be written to spill file", e);
+        }
+    }
+
+    /**
+     * @return offset of free extent of spill file (first fit or end of file)
+     */
+    private long allocate(int length) {
+        for (Map.Entry<Long, Integer> extent : freeSpace.entrySet()) {
+            if (extent.getValue() < length)
+                continue;
+
+            final long offset = extent.getKey();
+            freeSpace.remove(offset);
+
+            if (extent.getValue() > length)
+                freeSpace.put(offset + length, extent.getValue() - length);
+
+            return offset;
+        }
+
+        final long offset = spillLength;
+        spillLength += length;
+        return offset;
+    }
+
+    /**
+     * Add extent to free space (adjacent free extents are joined)
+     */
+    private void release(long offset, int length) {
+        long extentLength = length;
+
+        final Integer nextLength = freeSpace.remove(offset + length);
+        if (nextLength != null)
+            extentLength += nextLength;
+
+        final Map.Entry<Long, Integer> previous = freeSpace.floorEntry(offset);
+        if (previous != null && previous.getKey() + previous.getValue() == offset) {
+            offset = previous.getKey();
+            extentLength += previous.getValue();
+        }
+
+        if (offset + extentLength == spillLength) {
+            // free space at the end of file
+            freeSpace.remove(offset);
+            spillLength = offset;
+        } else if (extentLength <= Integer.MAX_VALUE) {
+            freeSpace.put(offset, (int) extentLength);
+        }
+    }
+
+    private Page readPage(int pageNumber) {
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocate(pageLengths[pageNumber]);
+            long position = pageOffsets[pageNumber];
+            while (buffer.hasRemaining()) {
+                final int count = spillChannel.read(buffer, position);
+                if (count < 0)
+                    throw new EOFException();
+
+                position += count;
+            }
+
+            buffer.flip();
+            final Page page = new Page();
+
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                final int length = buffer.getInt();
+                if (length < 0)
+                    continue;
+
+                final Object[] values = new Object[length];
+                for (int j = 0; j < length; j++) {
+                    if (buffer.get(buffer.position()) == NOT_PUT) {
+                        buffer.get();
+                        continue;
+                    }
+
+                    final Object value = GroovyMultilineDocumentValueCodec.read(buffer);
+                    values[j] = value != null ? value : Page.NULL;
+                }
+
+                page.rows[i] = values;
+            }
+
+            page.dirty = false;
+            return page;
+        } catch (IOException e) {
+            throw new GroovyException("Document page can't be read from spill file", e);
+        }
+    }
+
+    private FileChannel getSpillChannel() throws IOException {
+        if (spillChannel == null) {
+            spillFile = File.createTempFile("gscript", ".spill");
+            spillFile.deleteOnExit();
+            spillAccess = new RandomAccessFile(spillFile, "rw");
+            spillChannel = spillAccess.getChannel();
+        }
+
+        return spillChannel;
+    }
+
+    private static Object unmask(Object value) {
+        return value == Page.NULL ? null : value;
+    }
+
+    private static final class Page {
+        /**
+         * Marks value that was put as null (empty slot means value was not put)
+         */
+        private static final Object NULL = new Object();
+
+        private final Object[][] rows = new Object[PAGE_SIZE][];
+        private boolean dirty = true;
+    }
+}
@@ -0,0 +1,55 @@
+package gscript.factory.document;
+
+import java.util.Iterator;
+
+/**
+ * Storage of document line values.
+ * <p>
+ * Document lines are lightweight views over storage rows, so the storage decides how values are kept in memory.
+ */
+interface GroovyMultilineDocumentStorage {
+
+    /**
+     * Allocate new empty row
+     *
+     * @return row number
+     */
+    int createRow();
+
+    /**
+     * @return number of allocated rows
+     */
+    int getRowCount();
+
+    /**
+     * @return true if value for column was put in the row (even if null)
+     */
+    boolean contains(int row, GroovyMultilineDocument.Column column);
+
+    Object get(int row, GroovyMultilineDocument.Column column);
+
+    /**
+     * Put value in the row
+     *
+     * @return previous value
+     */
+    Object set(int row, GroovyMultilineDocument.Column column, Object value);
+
+    /**
+     * Remove value from the row
+     *
+     * @return previous value
+     */
+    Object remove(int row, GroovyMultilineDocument.Column column);
+
+    /**
+     * @return columns which were put in the row
+     */
+    Iterator<GroovyMultilineDocument.Column> columns(int row);
+
+    /**
+     * @return number of columns which were put in the row
+     */
+    int size(int row);
+
+}
@@ -0,0 +1,68 @@
+package gscript.factory.document;
+
+import gscript.util.bitmap.CompressedBitmap;
+import gscript.util.qgramm.QGrammInvertedIndex;
+
+/**
+ * Text index of document column (inverted index of string value trigrams).
+ * <p>
+ * Finds rows whose string value contains substrings ignoring case. Found rows may contain extra rows
+ * (value contains all trigrams of substring but not substring), so callers check values of found lines.
+ */
+public final class GroovyMultilineDocumentTextIndex {
+
+    private final GroovyMultilineDocument document;
+    private final String columnName;
+
+    private final QGrammInvertedIndex index = new QGrammInvertedIndex();
+    private boolean valid;
+
+    GroovyMultilineDocumentTextIndex(GroovyMultilineDocument document, String columnName) {
+        this.document = document;
+        this.columnName = columnName;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * Find rows whose value contains all substrings
+     *
+     * @param substrings substrings
+     * @return sorted row numbers or null if substrings are shorter than 3 characters (index can't be used)
+     */
+    public int[] getRowsContaining(String... substrings) {
+        build();
+
+        final CompressedBitmap rows = index.getCandidates(substrings);
+        return rows != null ? rows.toArray() : null;
+    }
+
+    void add(int row, Object value) {
+        if (valid && value instanceof String)
+            index.add(row, (String) value);
+    }
+
+    void remove(int row, Object value) {
+        if (valid && value instanceof String)
+            index.remove(row, (String) value);
+    }
+
+    /**
+     * Index will be rebuilt on next use (column values were cast)
+     */
+    void invalidate() {
+        valid = false;
+        index.clear();
+    }
+
+    void build() {
+        if (valid)
+            return;
+
+        valid = true;
+        for (GroovyMultilineDocument.Line line : document.getLines())
+            add(line.getRow(), line.get(columnName));
+    }
+}
@@ -0,0 +1,211 @@
+package gscript.factory.document;
+
+import gscript.GroovyException;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Binary encoding of document values: tag byte followed by typed value
+ * (values of other serializable classes are written by Java serialization)
+ */
+final class GroovyMultilineDocumentValueCodec {
+
+    static final byte NULL = 1;
+    static final byte STRING = 2;
+    static final byte INTEGER = 3;
+    static final byte LONG = 4;
+    static final byte DOUBLE = 5;
+    static final byte BIG_DECIMAL = 6;
+    static final byte DATE = 7;
+    static final byte BOOLEAN = 8;
+    static final byte SHORT = 9;
+    static final byte BYTE = 10;
+    static final byte FLOAT = 11;
+    static final byte BIG_INTEGER = 12;
+    static final byte SERIALIZABLE = 13;
+
+    private GroovyMultilineDocumentValueCodec() {
+    }
+
+    /**
+     * @return tag of value class (SERIALIZABLE for other classes)
+     */
+    static byte getTag(Object value) {
+        if (value == null)
+            return NULL;
+
+        final Class valueClass = value.getClass();
+        if (valueClass == String.class)
+            return STRING;
+        if (valueClass == Integer.class)
+            return INTEGER;
+        if (valueClass == Long.class)
+            return LONG;
+        if (valueClass == Double.class)
+            return DOUBLE;
+        if (valueClass == BigDecimal.class)
+            return BIG_DECIMAL;
+        if (valueClass == Date.class)
+            return DATE;
+        if (valueClass == Boolean.class)
+            return BOOLEAN;
+        if (valueClass == Short.class)
+            return SHORT;
+        if (valueClass == Byte.class)
+            return BYTE;
+        if (valueClass == Float.class)
+            return FLOAT;
+        if (valueClass == BigInteger.class)
+            return BIG_INTEGER;
+
+        return SERIALIZABLE;
+    }
+
+    /**
+     * Check that value can be written: values of not tagged classes are serialized to check all their fields
+     *
+     * @throws GroovyException if value can't be written
+     */
+    static void checkWritable(Object value) {
+        if (getTag(value) != SERIALIZABLE)
+            return;
+
+        if (!(value instanceof Serializable))
+            throw new GroovyException("Value of class " + value.getClass().getName() + " can't be written in binary form");
+
+        try (ObjectOutputStream objectOut = new ObjectOutputStream(NullOutputStream.NULL_OUTPUT_STREAM)) {
+            objectOut.writeObject(value);
+        } catch (IOException e) {
+            throw new GroovyException("Value of class " + value.getClass().getName() + " can't be written in binary form: " + e.getMessage(), e);
+        }
+    }
+
+    static void write(DataOutputStream out, Object value) throws IOException {
+        final byte tag = getTag(value);
+        out.writeByte(tag);
+        writeUntagged(out, tag, value);
+    }
+
+    static Object read(ByteBuffer in) throws IOException {
+        return readUntagged(in, in.get());
+    }
+
+    /**
+     * Write value without tag (tag is known to reader)
+     */
+    static void writeUntagged(DataOutputStream out, byte tag, Object value) throws IOException {
+        switch (tag) {
+            case NULL:
+                break;
+            case STRING: {
+                final byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                break;
+            }
+            case INTEGER:
+                out.writeInt((Integer) value);
+                break;
+            case LONG:
+                out.writeLong((Long) value);
+                break;
+            case DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            case BIG_DECIMAL: {
+                final byte[] bytes = ((BigDecimal) value).unscaledValue().toByteArray();
+                out.writeInt(((BigDecimal) value).scale());
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                break;
+            }
+            case DATE:
+                out.writeLong(((Date) value).getTime());
+                break;
+            case BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case SHORT:
+                out.writeShort((Short) value);
+                break;
+            case BYTE:
+                out.writeByte((Byte) value);
+                break;
+            case FLOAT:
+                out.writeFloat((Float) value);
+                break;
+            case BIG_INTEGER: {
+                final byte[] bytes = ((BigInteger) value).toByteArray();
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                break;
+            }
+            default: {
+                if (!(value instanceof Serializable))
+                    throw new GroovyException("Value of class " + value.getClass().getName() + " can't be written in binary form");
+
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+                    objectOut.writeObject(value);
+                }
+
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+        }
+    }
+
+    /**
+     * Read value written without tag
+     */
+    static Object readUntagged(ByteBuffer in, byte tag) throws IOException {
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case INTEGER:
+                return in.getInt();
+            case LONG:
+                return in.getLong();
+            case DOUBLE:
+                return in.getDouble();
+            case BIG_DECIMAL: {
+                final int scale = in.getInt();
+                return new BigDecimal(new BigInteger(readBytes(in)), scale);
+            }
+            case DATE:
+                return new Date(in.getLong());
+            case BOOLEAN:
+                return in.get() != 0;
+            case SHORT:
+                return in.getShort();
+            case BYTE:
+                return in.get();
+            case FLOAT:
+                return in.getFloat();
+            case BIG_INTEGER:
+                return new BigInteger(readBytes(in));
+            case SERIALIZABLE:
+                try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)))) {
+                    return objectIn.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        final byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return bytes;
+    }
+}
@@ -2,23 +2,30 @@ package gscript.factory.document;
 
 import gscript.Factory;
 import gscript.GroovyException;
-import org.dom4j.Document;
-import org.dom4j.Element;
-import org.dom4j.io.SAXReader;
-import org.joda.time.DateTime;
-
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
+import groovy.lang.Closure;
+
+import javax.xml.stream.*;
 import java.io.*;
 import java.math.BigDecimal;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public final class GroovyMultilineDocumentXMLSerializer {
 
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final char[] SPACES = "                ".toCharArray();
+
+    /**
+     * Output factory is configured once and shared (writers are created per file)
+     */
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
     private final Factory factory;
+    private final GroovyMultilineDocumentDateFormatter dateFormatter = new GroovyMultilineDocumentDateFormatter();
 
     public GroovyMultilineDocumentXMLSerializer(Factory factory) {
         this.factory = factory;
@@ -68,8 +75,7 @@ public final class GroovyMultilineDocumentXMLSerializer {
     }
 
     private void writeOffset(XMLStreamWriter writer, int offset) throws XMLStreamException {
-        for (int i = 0; i < offset; i++)
-            writer.writeCharacters(" ");
+        writer.writeCharacters(SPACES, 0, offset);
     }
 
     private void writeElement(XMLStreamWriter writer, String name, Object value, int offset) throws XMLStreamException {
@@ -80,25 +86,19 @@ public final class GroovyMultilineDocumentXMLSerializer {
         writer.writeStartElement(name);
 
         if (value instanceof Date) {
-
-            final DateTime dateTime = new DateTime(value);
-            if (dateTime.getHourOfDay() == 0 && dateTime.getMinuteOfHour() == 0 && dateTime.getSecondOfMinute() == 0) {
-                writer.writeCharacters(dateTime.toString("dd.MM.yyyy"));
-            } else {
-                writer.writeCharacters(dateTime.toString("dd.MM.yyyy HH:mm:ss"));
-            }
+            writer.writeCharacters(dateFormatter.getChars(), 0, dateFormatter.format((Date) value));
         } else if (value instanceof Number) {
             String valueAsString = value.toString();
 
             // плавающая точка всегда точка
-            if (valueAsString.contains(","))
+            if (valueAsString.indexOf(',') >= 0)
                 valueAsString = valueAsString.replace(",", ".");
 
             writer.writeCharacters(valueAsString);
         } else {
             final String valueAsString = value.toString();
 
-            if (valueAsString.contains("<") || valueAsString.contains(">"))
+            if (containsTagBracket(valueAsString))
                 writer.writeCData(valueAsString);
             else
                 writer.writeCharacters(valueAsString);
@@ -108,19 +108,40 @@ public final class GroovyMultilineDocumentXMLSerializer {
         writer.writeEndElement();
     }
 
+    private static boolean containsTagBracket(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '<' || c == '>')
+                return true;
+        }
+
+        return false;
+    }
+
     public void saveToFile(GroovyMultilineDocument doc, File file) {
-        try (OutputStream outputStream = new FileOutputStream(file)) {
+        saveToFile(doc, file, false);
+    }
 
-            final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(
-                    new OutputStreamWriter(outputStream, "UTF-8"));
+    /**
+     * Save document to XML file
+     *
+     * @param gzip compress file by gzip
+     */
+    public void saveToFile(GroovyMultilineDocument doc, File file, boolean gzip) {
+        try (OutputStream outputStream = gzip ?
+                new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE) :
+                new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+
+            final XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(
+                    new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"), BUFFER_SIZE));
             try {
                 writer.writeStartDocument();
                 writer.writeCharacters("\n");
                 writer.writeStartElement("document");
                 writer.writeCharacters("\n\n");
 
-                for (String headAttr : doc.keySet()) {
-                    writeElement(writer, headAttr, doc.get(headAttr), 4);
+                for (Map.Entry<String, Object> headEntry : doc.entrySet()) {
+                    writeElement(writer, headEntry.getKey(), headEntry.getValue(), 4);
                     writer.writeCharacters("\n");
                 }
 
@@ -136,8 +157,8 @@ public final class GroovyMultilineDocumentXMLSerializer {
                         writer.writeStartElement("line");
                         writer.writeCharacters("\n");
 
-                        for (String lineAttr : line.keySet()) {
-                            writeElement(writer, lineAttr, line.get(lineAttr), 12);
+                        for (Map.Entry<String, Object> lineEntry : line.entrySet()) {
+                            writeElement(writer, lineEntry.getKey(), lineEntry.getValue(), 12);
                             writer.writeCharacters("\n");
                         }
 
@@ -163,37 +184,204 @@ public final class GroovyMultilineDocumentXMLSerializer {
     }
 
     public void loadFromFile(final GroovyMultilineDocument doc, File file) {
-        try {
-            try (final InputStreamReader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
-                final Document document = new SAXReader().read(reader);
-
-                final Element documentElement = document.getRootElement();
-                if (!"document".equals(documentElement.getName()))
-                    throw new GroovyException("Invalid XML schema");
+        load(doc, file, null);
+    }
 
-                for (Object elementObject : documentElement.elements()) {
-                    if (elementObject instanceof Element) {
-                        final Element element = (Element) elementObject;
+    /**
+     * Load head values to document and pass every line to closure (lines are not added to document)
+     *
+     * @param closure closure with line parameter (map of line values)
+     */
+    public void loadFromFile(final GroovyMultilineDocument doc, File file, Closure closure) {
+        load(doc, file, closure);
+    }
 
-                        if ("lines".equals(element.getName())) {
-                            for (Iterator lineIterator = element.elementIterator("line"); lineIterator.hasNext(); ) {
-                                final Element lineElement = (Element) lineIterator.next();
-                                final GroovyMultilineDocument.Line line = doc.createLine();
+    /**
+     * Lines are created while XML is read (document tree is not built)
+     */
+    private void load(GroovyMultilineDocument doc, File file, Closure closure) {
+        try {
+            try (final InputStreamReader reader = new InputStreamReader(openInputStream(file), "UTF-8")) {
+                final XMLStreamReader xmlReader = getInputFactory().createXMLStreamReader(reader);
+                try {
+                    while (xmlReader.hasNext() && xmlReader.next() != XMLStreamConstants.START_ELEMENT) {
+                    }
 
-                                for (Object lineFieldObject : lineElement.elements())
-                                    if (lineFieldObject instanceof Element)
-                                        line.put(((Element) lineFieldObject).getName(), parseObject(((Element) lineFieldObject).getText()));
+                    if (!xmlReader.isStartElement() || !"document".equals(xmlReader.getLocalName()))
+                        throw new GroovyException("Invalid XML schema");
+
+                    while (nextChild(xmlReader)) {
+                        if ("lines".equals(xmlReader.getLocalName())) {
+                            while (nextChild(xmlReader)) {
+                                if (!"line".equals(xmlReader.getLocalName())) {
+                                    skipElement(xmlReader);
+                                    continue;
+                                }
+
+                                if (closure != null) {
+                                    final Map<String, Object> line = new LinkedHashMap<>();
+                                    while (nextChild(xmlReader)) {
+                                        final String name = xmlReader.getLocalName();
+                                        line.put(name, parseValue(readText(xmlReader)));
+                                    }
+
+                                    closure.call(line);
+                                } else {
+                                    final GroovyMultilineDocument.Line line = doc.createLine();
+                                    while (nextChild(xmlReader)) {
+                                        final String name = xmlReader.getLocalName();
+                                        line.put(name, parseValue(readText(xmlReader)));
+                                    }
+                                }
                             }
                         } else {
-                            doc.put(element.getName(), parseObject(element.getText()));
+                            final String name = xmlReader.getLocalName();
+                            doc.put(name, parseValue(readText(xmlReader)));
                         }
                     }
+                } finally {
+                    xmlReader.close();
                 }
-
             }
         } catch (Throwable e) {
             throw new GroovyException("XML load error: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * @return file stream (gzip files are decompressed)
+     */
+    private static InputStream openInputStream(File file) throws IOException {
+        final InputStream inputStream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+
+        inputStream.mark(2);
+        final boolean gzip = inputStream.read() == 0x1F && inputStream.read() == 0x8B;
+        inputStream.reset();
+
+        return gzip ? new GZIPInputStream(inputStream, BUFFER_SIZE) : inputStream;
+    }
+
+    private static XMLInputFactory getInputFactory() {
+        final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return inputFactory;
+    }
+
+    /**
+     * Move to next child element of current element
+     *
+     * @return false if end of current element is reached
+     */
+    private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                return true;
+
+            if (event == XMLStreamConstants.END_ELEMENT)
+                return false;
+        }
+
+        return false;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+
+    /**
+     * Read text of current element (text of child elements is skipped) and move to its end
+     */
+    private static String readText(XMLStreamReader reader) throws XMLStreamException {
+        String text = null;
+        StringBuilder builder = null;
+
+        while (reader.hasNext()) {
+            final int event = reader.next();
+
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+                if (text == null) {
+                    text = reader.getText();
+                } else {
+                    if (builder == null)
+                        builder = new StringBuilder(text);
+
+                    builder.append(reader.getText());
+                }
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                skipElement(reader);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+
+        if (builder != null)
+            return builder.toString();
+
+        return text != null ? text : "";
+    }
+
+    /**
+     * Parse value as {@link #parseObject(String)} does. Values which can't be dates (shorter than 10 characters
+     * or without digits) are checked without regular expressions.
+     */
+    private Object parseValue(String value) {
+        final int length = value.length();
+
+        boolean hasDigits = false;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= '0' && c <= '9')
+                hasDigits = true;
+            else if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029' || c == '<')
+                // line terminators and CDATA are matched by regular expressions
+                return parseObject(value);
+        }
+
+        if (!hasDigits) {
+            if ("true".equals(value) || "false".equals(value))
+                return Boolean.parseBoolean(value);
+
+            return value;
+        }
+
+        if (length >= 10)
+            return parseObject(value);
+
+        int digits = 0;
+        while (digits < length && isDigit(value.charAt(digits)))
+            digits++;
+
+        if (digits == length) {
+            // decimal pattern matches 3 and more digits (any character matches digit)
+            if (length >= 3)
+                return new BigDecimal(Double.parseDouble(value)).setScale(2, BigDecimal.ROUND_HALF_UP);
+
+            return Integer.parseInt(value);
+        }
+
+        // decimal: digits, any character, digits
+        if (digits > 0 && digits + 1 < length) {
+            int i = digits + 1;
+            while (i < length && isDigit(value.charAt(i)))
+                i++;
+
+            if (i == length)
+                return new BigDecimal(Double.parseDouble(value)).setScale(2, BigDecimal.ROUND_HALF_UP);
+        }
+
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
 }
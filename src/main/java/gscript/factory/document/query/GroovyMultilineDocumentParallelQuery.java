@@ -0,0 +1,140 @@
+package gscript.factory.document.query;
+
+import gscript.factory.document.GroovyMultilineDocument;
+import gscript.util.ConcurrencyUtils;
+
+import java.util.*;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join evaluation of query over line ranges
+ */
+final class GroovyMultilineDocumentParallelQuery {
+
+    /**
+     * Min number of lines processed by one task
+     */
+    private static final int MIN_CHUNK_SIZE = 4096;
+
+    private GroovyMultilineDocumentParallelQuery() {
+    }
+
+    private static int getChunkSize(int size, int parallelism) {
+        return Math.max(MIN_CHUNK_SIZE, size / (parallelism * 4));
+    }
+
+    /**
+     * Select lines accepted by query
+     *
+     * @param query       query
+     * @param lines       lines (random access list)
+     * @param parallelism number of threads
+     * @return accepted lines in source order
+     */
+    static List<GroovyMultilineDocument.Line> select(GroovyMultilineDocumentQuery query,
+                                                     List<GroovyMultilineDocument.Line> lines,
+                                                     int parallelism) {
+        return ConcurrencyUtils.getForkJoinPool(parallelism).invoke(new SelectTask(query, lines, 0, lines.size(), getChunkSize(lines.size(), parallelism)));
+    }
+
+    /**
+     * Select first lines in sort order accepted by query
+     *
+     * @param query       query
+     * @param lines       lines (random access list)
+     * @param comparator  sort order
+     * @param limit       max lines count
+     * @param parallelism number of threads
+     * @return first lines
+     */
+    static GroovyMultilineDocumentQueryTopLines selectTop(GroovyMultilineDocumentQuery query,
+                                                         List<GroovyMultilineDocument.Line> lines,
+                                                         Comparator<GroovyMultilineDocument.Line> comparator,
+                                                         int limit,
+                                                         int parallelism) {
+        return ConcurrencyUtils.getForkJoinPool(parallelism).invoke(new SelectTopTask(query, lines, 0, lines.size(),
+                getChunkSize(lines.size(), parallelism), comparator, limit));
+    }
+
+    private static final class SelectTask extends RecursiveTask<List<GroovyMultilineDocument.Line>> {
+        private final GroovyMultilineDocumentQuery query;
+        private final List<GroovyMultilineDocument.Line> lines;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        SelectTask(GroovyMultilineDocumentQuery query, List<GroovyMultilineDocument.Line> lines, int from, int to, int chunkSize) {
+            this.query = query;
+            this.lines = lines;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected List<GroovyMultilineDocument.Line> compute() {
+            if (to - from <= chunkSize) {
+                final List<GroovyMultilineDocument.Line> result = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    final GroovyMultilineDocument.Line line = lines.get(i);
+                    if (query.matches(line))
+                        result.add(line);
+                }
+
+                return result;
+            }
+
+            final int middle = (from + to) >>> 1;
+            final SelectTask left = new SelectTask(query, lines, from, middle, chunkSize);
+            left.fork();
+
+            final List<GroovyMultilineDocument.Line> rightResult = new SelectTask(query, lines, middle, to, chunkSize).compute();
+            final List<GroovyMultilineDocument.Line> result = left.join();
+            result.addAll(rightResult);
+            return result;
+        }
+    }
+
+    private static final class SelectTopTask extends RecursiveTask<GroovyMultilineDocumentQueryTopLines> {
+        private final GroovyMultilineDocumentQuery query;
+        private final List<GroovyMultilineDocument.Line> lines;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+        private final Comparator<GroovyMultilineDocument.Line> comparator;
+        private final int limit;
+
+        SelectTopTask(GroovyMultilineDocumentQuery query, List<GroovyMultilineDocument.Line> lines, int from, int to, int chunkSize,
+                      Comparator<GroovyMultilineDocument.Line> comparator, int limit) {
+            this.query = query;
+            this.lines = lines;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.comparator = comparator;
+            this.limit = limit;
+        }
+
+        @Override
+        protected GroovyMultilineDocumentQueryTopLines compute() {
+            if (to - from <= chunkSize) {
+                final GroovyMultilineDocumentQueryTopLines result = new GroovyMultilineDocumentQueryTopLines(comparator, limit);
+                for (int i = from; i < to; i++) {
+                    final GroovyMultilineDocument.Line line = lines.get(i);
+                    if (query.matches(line))
+                        result.add(line, i);
+                }
+
+                return result;
+            }
+
+            final int middle = (from + to) >>> 1;
+            final SelectTopTask left = new SelectTopTask(query, lines, from, middle, chunkSize, comparator, limit);
+            left.fork();
+
+            final GroovyMultilineDocumentQueryTopLines result = new SelectTopTask(query, lines, middle, to, chunkSize, comparator, limit).compute();
+            result.addAll(left.join());
+            return result;
+        }
+    }
+}
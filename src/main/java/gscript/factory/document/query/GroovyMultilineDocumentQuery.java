@@ -1,23 +1,35 @@
 package gscript.factory.document.query;
 
+import gscript.GroovyException;
 import gscript.factory.document.GroovyMultilineDocument;
+import gscript.factory.document.GroovyMultilineDocumentSortedIndex;
 import gscript.factory.document.query.criterion.GroovyMultilineDocumentLineComparator;
 import gscript.factory.document.query.criterion.GroovyMultilineDocumentQueryCriterion;
 import gscript.factory.document.query.criterion.GroovyMultilineDocumentQueryOrder;
+import groovy.lang.Closure;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
 
-public final class GroovyMultilineDocumentQuery {
+public final class GroovyMultilineDocumentQuery implements Iterable<GroovyMultilineDocument.Line> {
+
+    /**
+     * Default min number of lines for parallel execution
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 100000;
 
     private GroovyMultilineDocument document;
 
     final List<GroovyMultilineDocumentQueryCriterion> criterionList = new ArrayList<>();
     final List<GroovyMultilineDocumentQueryOrder> orders = new ArrayList<>();
 
+    /**
+     * Criteria in order of checking (the most selective first)
+     */
+    private List<GroovyMultilineDocumentQueryCriterion> checkedCriteria = criterionList;
+
     private int limit = -1;
+    private int parallelism = 1;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
 
     public GroovyMultilineDocumentQuery(GroovyMultilineDocument document) {
         this.document = document;
@@ -56,21 +68,299 @@ public final class GroovyMultilineDocumentQuery {
         return this;
     }
 
-    private List<GroovyMultilineDocument.Line> execute() {
-        List<GroovyMultilineDocument.Line> list = new ArrayList<>(document.getLinesCount());
-        list.addAll(document.getLines());
+    /**
+     * Set number of threads used to execute query. Query is executed in parallel only if number of checked lines
+     * is not less than parallel threshold. Document lines must not be changed while query is executed.
+     *
+     * @param parallelism number of threads (1 - query is executed in calling thread)
+     * @return this
+     */
+    public GroovyMultilineDocumentQuery setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new GroovyException("Parallelism must be positive: " + parallelism);
+
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Set min number of lines for parallel execution
+     *
+     * @param parallelThreshold lines count
+     * @return this
+     */
+    public GroovyMultilineDocumentQuery setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+        return this;
+    }
+
+    /**
+     * Sort lines by single order using sorted index of document
+     *
+     * @return sorted lines or null if index can not be used
+     */
+    private List<GroovyMultilineDocument.Line> sortUsingIndex(List<GroovyMultilineDocument.Line> list) {
+        if (orders.size() != 1)
+            return null;
+
+        final GroovyMultilineDocumentQueryOrder order = orders.get(0);
+        final GroovyMultilineDocumentSortedIndex index = document.getSortedIndex(order.getFieldName());
+        if (index == null)
+            return null;
+
+        // index walks all document lines, sorting few found lines is cheaper
+        final int size = list.size();
+        if ((long) size * (32 - Integer.numberOfLeadingZeros(size)) < document.getLinesCount())
+            return null;
+
+        return index.sort(list, order.getDirection() == GroovyMultilineDocumentQueryOrder.Direction.DESC);
+    }
+
+    /**
+     * Find document lines which may be accepted by query, using document indices
+     *
+     * @return lines in document order
+     */
+    private List<GroovyMultilineDocument.Line> getCandidateLines() {
+        checkedCriteria = GroovyMultilineDocumentQueryCriterion.orderBySelectivity(criterionList, document);
+
+        int[] rows = null;
+
+        for (GroovyMultilineDocumentQueryCriterion criterion : criterionList) {
+            final int[] criterionRows = criterion.getIndexedRows(document);
+            if (criterionRows != null)
+                rows = rows == null ? criterionRows : intersect(rows, criterionRows);
+        }
+
+        final List<GroovyMultilineDocument.Line> lines = rows != null ? document.getLines(rows) : null;
+        return lines != null ? lines : document.getLines();
+    }
+
+    private static int[] intersect(int[] rows1, int[] rows2) {
+        final int[] result = new int[Math.min(rows1.length, rows2.length)];
+        int i = 0, j = 0, k = 0;
+
+        while (i < rows1.length && j < rows2.length) {
+            if (rows1[i] < rows2[j]) {
+                i++;
+            } else if (rows1[i] > rows2[j]) {
+                j++;
+            } else {
+                result[k++] = rows1[i];
+                i++;
+                j++;
+            }
+        }
+
+        return Arrays.copyOf(result, k);
+    }
+
+    boolean matches(GroovyMultilineDocument.Line line) {
+        for (GroovyMultilineDocumentQueryCriterion criterion : checkedCriteria)
+            if (!criterion.matches(line))
+                return false;
 
-        for (GroovyMultilineDocumentQueryCriterion criterion : criterionList)
-            list = criterion.select(list);
+        return true;
+    }
 
+    /**
+     * Select first lines in query order (only limit lines are kept while candidates are checked)
+     *
+     * @return sorted lines
+     */
+    private List<GroovyMultilineDocument.Line> selectTop(List<GroovyMultilineDocument.Line> candidates, boolean parallel) {
         final Comparator<GroovyMultilineDocument.Line> comparator = new GroovyMultilineDocumentLineComparator(orders);
-        Collections.sort(list, comparator);
 
-        if (limit >= 0)
-            for (int i = list.size() - 1; i >= limit; --i)
-                list.remove(i);
+        if (parallel)
+            return GroovyMultilineDocumentParallelQuery.selectTop(this, candidates, comparator, limit, parallelism).toList();
+
+        final GroovyMultilineDocumentQueryTopLines topLines = new GroovyMultilineDocumentQueryTopLines(comparator, limit);
+        int position = 0;
+        for (GroovyMultilineDocument.Line line : candidates) {
+            if (matches(line))
+                topLines.add(line, position);
+
+            position++;
+        }
+
+        return topLines.toList();
+    }
+
+    /**
+     * Execute query
+     *
+     * @return found lines
+     */
+    public List<GroovyMultilineDocument.Line> execute() {
+        final List<GroovyMultilineDocument.Line> candidates = getCandidateLines();
+
+        // without ordering first found lines are result
+        final int maxCount = orders.isEmpty() && limit >= 0 ? limit : Integer.MAX_VALUE;
+
+        final boolean parallel = parallelism > 1 && candidates.size() >= parallelThreshold;
+        if (parallel) {
+            // values of widened columns are cast once, not on every read by every thread
+            document.castPendingValues();
+        }
+
+        if (!orders.isEmpty() && limit >= 0)
+            return selectTop(candidates, parallel);
+
+        List<GroovyMultilineDocument.Line> list;
+        if (parallel && maxCount == Integer.MAX_VALUE) {
+            list = GroovyMultilineDocumentParallelQuery.select(this, candidates, parallelism);
+        } else {
+            list = new ArrayList<>();
+            for (GroovyMultilineDocument.Line line : candidates) {
+                if (list.size() >= maxCount)
+                    break;
+
+                if (matches(line))
+                    list.add(line);
+            }
+        }
+
+        if (!orders.isEmpty()) {
+            final List<GroovyMultilineDocument.Line> sortedList = sortUsingIndex(list);
+
+            if (sortedList != null) {
+                list = sortedList;
+            } else {
+                new GroovyMultilineDocumentLineComparator(orders).sort(list, parallel && list.size() >= parallelThreshold ? parallelism : 1);
+            }
+        }
+
+        if (limit >= 0 && list.size() > limit)
+            list = new ArrayList<>(list.subList(0, limit));
 
         return list;
     }
 
+    /**
+     * Iterate found lines. Without order lines are found while iterating, otherwise query is executed first.
+     *
+     * @return iterator of found lines
+     */
+    @Override
+    public Iterator<GroovyMultilineDocument.Line> iterator() {
+        if (!orders.isEmpty())
+            return execute().iterator();
+
+        final Iterator<GroovyMultilineDocument.Line> candidates = getCandidateLines().iterator();
+
+        return new Iterator<GroovyMultilineDocument.Line>() {
+            private GroovyMultilineDocument.Line next;
+            private int count;
+
+            private boolean seek() {
+                if (next != null)
+                    return true;
+
+                if (limit >= 0 && count >= limit)
+                    return false;
+
+                while (candidates.hasNext()) {
+                    final GroovyMultilineDocument.Line line = candidates.next();
+                    if (matches(line)) {
+                        next = line;
+                        count++;
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return seek();
+            }
+
+            @Override
+            public GroovyMultilineDocument.Line next() {
+                if (!seek())
+                    throw new NoSuchElementException();
+
+                final GroovyMultilineDocument.Line line = next;
+                next = null;
+                return line;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Call closure for every found line
+     *
+     * @param closure closure with line parameter
+     */
+    public void forEach(Closure closure) {
+        for (GroovyMultilineDocument.Line line : this)
+            closure.call(line);
+    }
+
+    /**
+     * @return number of found lines (order is ignored)
+     */
+    public int count() {
+        int count = 0;
+        for (GroovyMultilineDocument.Line line : getCandidateLines()) {
+            if (limit >= 0 && count >= limit)
+                break;
+
+            if (matches(line))
+                count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return true if at least one line is found
+     */
+    public boolean exists() {
+        if (limit == 0)
+            return false;
+
+        for (GroovyMultilineDocument.Line line : getCandidateLines())
+            if (matches(line))
+                return true;
+
+        return false;
+    }
+
+    /**
+     * @return first found line or null
+     */
+    public GroovyMultilineDocument.Line first() {
+        if (limit == 0)
+            return null;
+
+        if (!orders.isEmpty()) {
+            final GroovyMultilineDocumentQueryTopLines topLines =
+                    new GroovyMultilineDocumentQueryTopLines(new GroovyMultilineDocumentLineComparator(orders), 1);
+
+            int position = 0;
+            for (GroovyMultilineDocument.Line line : getCandidateLines()) {
+                if (matches(line))
+                    topLines.add(line, position);
+
+                position++;
+            }
+
+            final List<GroovyMultilineDocument.Line> lines = topLines.toList();
+            return lines.isEmpty() ? null : lines.get(0);
+        }
+
+        for (GroovyMultilineDocument.Line line : getCandidateLines())
+            if (matches(line))
+                return line;
+
+        return null;
+    }
+
 }
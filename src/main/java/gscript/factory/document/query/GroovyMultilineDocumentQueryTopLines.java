@@ -0,0 +1,87 @@
+package gscript.factory.document.query;
+
+import gscript.factory.document.GroovyMultilineDocument;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * First lines in sort order (bounded heap: the last of kept lines is on the top)
+ */
+final class GroovyMultilineDocumentQueryTopLines {
+
+    private final Comparator<GroovyMultilineDocument.Line> comparator;
+    private final int limit;
+    private final PriorityQueue<Entry> heap;
+    private final Comparator<Entry> entryComparator = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry entry1, Entry entry2) {
+            final int result = comparator.compare(entry1.line, entry2.line);
+            if (result != 0)
+                return result;
+
+            // equal lines keep source order
+            return entry1.position < entry2.position ? -1 : (entry1.position == entry2.position ? 0 : 1);
+        }
+    };
+
+    /**
+     * @param comparator sort order
+     * @param limit      max lines count
+     */
+    GroovyMultilineDocumentQueryTopLines(Comparator<GroovyMultilineDocument.Line> comparator, int limit) {
+        this.comparator = comparator;
+        this.limit = limit;
+        this.heap = new PriorityQueue<>(Math.max(1, Math.min(limit, 1024)), Collections.reverseOrder(entryComparator));
+    }
+
+    /**
+     * @param line     line
+     * @param position position of line in source lines
+     */
+    void add(GroovyMultilineDocument.Line line, int position) {
+        if (heap.size() < limit) {
+            heap.add(new Entry(line, position));
+        } else if (limit > 0) {
+            final Entry last = heap.peek();
+            final int result = comparator.compare(line, last.line);
+
+            if (result < 0 || result == 0 && position < last.position) {
+                heap.poll();
+                heap.add(new Entry(line, position));
+            }
+        }
+    }
+
+    void addAll(GroovyMultilineDocumentQueryTopLines other) {
+        for (Entry entry : other.heap)
+            add(entry.line, entry.position);
+    }
+
+    /**
+     * @return sorted lines
+     */
+    List<GroovyMultilineDocument.Line> toList() {
+        final List<Entry> entries = new ArrayList<>(heap);
+        Collections.sort(entries, entryComparator);
+
+        final List<GroovyMultilineDocument.Line> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries)
+            result.add(entry.line);
+
+        return result;
+    }
+
+    private static final class Entry {
+        final GroovyMultilineDocument.Line line;
+        final int position;
+
+        Entry(GroovyMultilineDocument.Line line, int position) {
+            this.line = line;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package gscript.factory.document.query.criterion;
+
+import gscript.util.qgramm.QGrammInvertedIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled SQL LIKE pattern: '%' matches any characters, '_' matches one character,
+ * escape character makes next character literal. Characters are compared ignoring case.
+ * <p>
+ * Pattern is parsed once. Patterns 'x', 'x%', '%x' and '%x%' are matched by fast paths,
+ * '%x%' uses Boyer-Moore-Horspool search of case folded text.
+ */
+final class GroovyMultilineDocumentLikePattern {
+
+    private enum Kind {
+        EQUALS, STARTS_WITH, ENDS_WITH, CONTAINS, ANY, GENERAL
+    }
+
+    /**
+     * Marks '_' in pattern parts
+     */
+    private static final char ANY_CHAR = '\uFFFF';
+
+    private final Kind kind;
+
+    /**
+     * Case folded parts of pattern between '%'
+     */
+    private final char[][] parts;
+    private final boolean anchoredStart;
+    private final boolean anchoredEnd;
+
+    /**
+     * Boyer-Moore-Horspool shifts for CONTAINS (by low byte of case folded character)
+     */
+    private final int[] shifts;
+
+    GroovyMultilineDocumentLikePattern(String pattern, char escapeChar) {
+        final List<char[]> parts = new ArrayList<>();
+        final StringBuilder part = new StringBuilder();
+        boolean hasAnyChar = false;
+
+        for (int i = 0; i < pattern.length(); i++) {
+            final char c = pattern.charAt(i);
+
+            if (c == escapeChar && i + 1 < pattern.length()) {
+                part.append(fold(pattern.charAt(++i)));
+            } else if (c == '%') {
+                parts.add(part.toString().toCharArray());
+                part.setLength(0);
+            } else if (c == '_') {
+                part.append(ANY_CHAR);
+                hasAnyChar = true;
+            } else {
+                part.append(fold(c));
+            }
+        }
+
+        parts.add(part.toString().toCharArray());
+
+        this.anchoredStart = parts.get(0).length > 0;
+        this.anchoredEnd = parts.get(parts.size() - 1).length > 0;
+
+        // empty parts do not restrict value (%% = %)
+        final List<char[]> notEmptyParts = new ArrayList<>();
+        for (char[] p : parts)
+            if (p.length > 0)
+                notEmptyParts.add(p);
+
+        this.parts = notEmptyParts.toArray(new char[notEmptyParts.size()][]);
+
+        if (parts.size() == 1)
+            kind = hasAnyChar || this.parts.length == 0 ? Kind.GENERAL : Kind.EQUALS;
+        else if (this.parts.length == 0)
+            kind = Kind.ANY;
+        else if (hasAnyChar || this.parts.length > 1)
+            kind = Kind.GENERAL;
+        else if (anchoredStart)
+            kind = Kind.STARTS_WITH;
+        else if (anchoredEnd)
+            kind = Kind.ENDS_WITH;
+        else
+            kind = Kind.CONTAINS;
+
+        shifts = kind == Kind.CONTAINS ? createShifts(this.parts[0]) : null;
+    }
+
+    /**
+     * Escape '%', '_' and escape characters of value
+     *
+     * @return pattern which matches value
+     */
+    static String escape(String value, char escapeChar) {
+        final StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '%' || c == '_' || c == escapeChar)
+                result.append(escapeChar);
+
+            result.append(c);
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * @return case folded literal substrings of pattern (parts split by '_'), every matching value contains them
+     */
+    String[] getLiterals() {
+        final List<String> literals = new ArrayList<>();
+        for (char[] part : parts) {
+            int start = 0;
+            for (int i = 0; i <= part.length; i++) {
+                if (i == part.length || part[i] == ANY_CHAR) {
+                    if (i > start)
+                        literals.add(new String(part, start, i - start));
+
+                    start = i + 1;
+                }
+            }
+        }
+
+        return literals.toArray(new String[literals.size()]);
+    }
+
+    boolean matches(String value) {
+        switch (kind) {
+            case ANY:
+                return true;
+            case EQUALS:
+                return value.length() == parts[0].length && matchesAt(value, 0, parts[0]);
+            case STARTS_WITH:
+                return value.length() >= parts[0].length && matchesAt(value, 0, parts[0]);
+            case ENDS_WITH:
+                return value.length() >= parts[0].length && matchesAt(value, value.length() - parts[0].length, parts[0]);
+            case CONTAINS:
+                return indexOf(value, 0) >= 0;
+            default:
+                return matchesGeneral(value);
+        }
+    }
+
+    /**
+     * Parts are found from left to right, first part is matched at start and last part at end if pattern is anchored
+     */
+    private boolean matchesGeneral(String value) {
+        if (parts.length == 0)
+            return value.isEmpty();
+
+        int from = 0;
+        int first = 0;
+        int last = parts.length;
+
+        if (anchoredStart) {
+            if (value.length() < parts[0].length || !matchesAt(value, 0, parts[0]))
+                return false;
+
+            from = parts[0].length;
+            first = 1;
+        }
+
+        int to = value.length();
+        if (anchoredEnd) {
+            final char[] lastPart = parts[parts.length - 1];
+            if (last == first) {
+                // single part is anchored at both sides (no '%')
+                return from == to;
+            }
+
+            if (to - from < lastPart.length || !matchesAt(value, to - lastPart.length, lastPart))
+                return false;
+
+            to -= lastPart.length;
+            last--;
+        }
+
+        for (int p = first; p < last; p++) {
+            final char[] part = parts[p];
+            int position = from;
+            while (position + part.length <= to && !matchesAt(value, position, part))
+                position++;
+
+            if (position + part.length > to)
+                return false;
+
+            from = position + part.length;
+        }
+
+        return true;
+    }
+
+    private static boolean matchesAt(String value, int offset, char[] part) {
+        for (int i = 0; i < part.length; i++) {
+            final char c = part[i];
+            if (c != ANY_CHAR && c != fold(value.charAt(offset + i)))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Boyer-Moore-Horspool search of the only pattern part
+     */
+    private int indexOf(String value, int from) {
+        final char[] needle = parts[0];
+        final int last = needle.length - 1;
+
+        int position = from;
+        while (position + last < value.length()) {
+            int i = last;
+            while (i >= 0 && needle[i] == fold(value.charAt(position + i)))
+                i--;
+
+            if (i < 0)
+                return position;
+
+            position += shifts[fold(value.charAt(position + last)) & 0xFF];
+        }
+
+        return -1;
+    }
+
+    private static int[] createShifts(char[] needle) {
+        final int[] shifts = new int[256];
+        for (int i = 0; i < shifts.length; i++)
+            shifts[i] = needle.length;
+
+        // characters with the same low byte share shift, the last occurrence gives the smallest shift
+        for (int i = 0; i < needle.length - 1; i++)
+            shifts[needle[i] & 0xFF] = needle.length - 1 - i;
+
+        return shifts;
+    }
+
+    private static char fold(char c) {
+        return QGrammInvertedIndex.fold(c);
+    }
+}
@@ -2,8 +2,10 @@ package gscript.factory.document.query.criterion;
 
 import gscript.factory.document.GroovyMultilineDocument;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.ListIterator;
 
 public class GroovyMultilineDocumentLineComparator implements Comparator<GroovyMultilineDocument.Line> {
 
@@ -45,4 +47,30 @@ public class GroovyMultilineDocumentLineComparator implements Comparator<GroovyM
 
         return result;
     }
+
+    /**
+     * Stable sort of lines. Values of ordered fields are read once, line positions are sorted by typed keys.
+     *
+     * @param lines lines
+     */
+    public void sort(List<GroovyMultilineDocument.Line> lines) {
+        sort(lines, 1);
+    }
+
+    /**
+     * Stable sort of lines using several threads
+     *
+     * @param lines       lines
+     * @param parallelism number of threads
+     */
+    public void sort(List<GroovyMultilineDocument.Line> lines, int parallelism) {
+        final GroovyMultilineDocument.Line[] array = lines.toArray(new GroovyMultilineDocument.Line[lines.size()]);
+        final int[] positions = new GroovyMultilineDocumentLineSortKeys(Arrays.asList(array), sort).sort(parallelism);
+
+        final ListIterator<GroovyMultilineDocument.Line> iterator = lines.listIterator();
+        for (int position : positions) {
+            iterator.next();
+            iterator.set(array[position]);
+        }
+    }
 }
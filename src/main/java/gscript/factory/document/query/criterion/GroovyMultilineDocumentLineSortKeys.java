@@ -0,0 +1,352 @@
+package gscript.factory.document.query.criterion;
+
+import gscript.factory.document.GroovyMultilineDocument;
+import gscript.util.ConcurrencyUtils;
+
+import java.util.*;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sort keys of lines: values of ordered fields are read once into typed arrays
+ * (long for integers, dates and booleans, double for floating point numbers, ranks of distinct values
+ * for strings and other comparable values) and line positions are sorted by them.
+ * <p>
+ * Keys are compared as {@link GroovyMultilineDocumentObjectComparator} compares values: when values of field
+ * have different classes they are kept as objects and compared by the object comparator.
+ */
+final class GroovyMultilineDocumentLineSortKeys {
+
+    /**
+     * Ranges shorter than this are sorted by insertion sort
+     */
+    private static final int INSERTION_SORT_SIZE = 32;
+
+    /**
+     * Min number of positions sorted by one task
+     */
+    private static final int MIN_CHUNK_SIZE = 8192;
+
+    private final Key[] keys;
+    private final int size;
+
+    /**
+     * @param lines lines (random access list)
+     * @param sort  order
+     */
+    GroovyMultilineDocumentLineSortKeys(List<GroovyMultilineDocument.Line> lines, List<GroovyMultilineDocumentQueryOrder> sort) {
+        this.size = lines.size();
+        this.keys = new Key[sort.size()];
+
+        for (int i = 0; i < keys.length; i++) {
+            final GroovyMultilineDocumentQueryOrder order = sort.get(i);
+
+            final Object[] values = new Object[size];
+            for (int j = 0; j < size; j++)
+                values[j] = lines.get(j).get(order.getFieldName());
+
+            keys[i] = createKey(values, order.getDirection() == GroovyMultilineDocumentQueryOrder.Direction.DESC);
+        }
+    }
+
+    /**
+     * Stable sort of line positions
+     *
+     * @param parallelism number of threads
+     * @return positions of lines in sort order
+     */
+    int[] sort(int parallelism) {
+        final int[] positions = new int[size];
+        for (int i = 0; i < size; i++)
+            positions[i] = i;
+
+        if (keys.length == 0 || size < 2)
+            return positions;
+
+        final int[] buffer = new int[size];
+
+        if (parallelism > 1 && size > MIN_CHUNK_SIZE) {
+            final int chunkSize = Math.max(MIN_CHUNK_SIZE, size / (parallelism * 4));
+            ConcurrencyUtils.getForkJoinPool(parallelism).invoke(new SortTask(positions, buffer, 0, size, chunkSize));
+        } else {
+            mergeSort(positions, buffer, 0, size);
+        }
+
+        return positions;
+    }
+
+    private int compare(int position1, int position2) {
+        for (Key key : keys) {
+            final int result = key.compare(position1, position2);
+            if (result != 0)
+                return result;
+        }
+
+        return 0;
+    }
+
+    private void mergeSort(int[] positions, int[] buffer, int from, int to) {
+        if (to - from <= INSERTION_SORT_SIZE) {
+            insertionSort(positions, from, to);
+            return;
+        }
+
+        final int middle = (from + to) >>> 1;
+        mergeSort(positions, buffer, from, middle);
+        mergeSort(positions, buffer, middle, to);
+        merge(positions, buffer, from, middle, to);
+    }
+
+    private void insertionSort(int[] positions, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            final int position = positions[i];
+
+            int j = i - 1;
+            while (j >= from && compare(positions[j], position) > 0) {
+                positions[j + 1] = positions[j];
+                j--;
+            }
+
+            positions[j + 1] = position;
+        }
+    }
+
+    /**
+     * Merge sorted ranges [from, middle) and [middle, to), equal keys are taken from left range first
+     */
+    private void merge(int[] positions, int[] buffer, int from, int middle, int to) {
+        if (compare(positions[middle - 1], positions[middle]) <= 0)
+            return;
+
+        System.arraycopy(positions, from, buffer, from, to - from);
+
+        int i = from, j = middle, k = from;
+        while (i < middle && j < to)
+            positions[k++] = compare(buffer[j], buffer[i]) < 0 ? buffer[j++] : buffer[i++];
+
+        while (i < middle)
+            positions[k++] = buffer[i++];
+
+        while (j < to)
+            positions[k++] = buffer[j++];
+    }
+
+    private static Key createKey(Object[] values, boolean descending) {
+        Class valueClass = null;
+        boolean hasNulls = false;
+
+        for (Object value : values) {
+            if (value == null) {
+                hasNulls = true;
+            } else if (valueClass == null) {
+                valueClass = value.getClass();
+            } else if (valueClass != value.getClass()) {
+                // values of different classes are compared as strings
+                return new ObjectKey(values, descending);
+            }
+        }
+
+        if (valueClass == null)
+            return new ObjectKey(values, descending);
+
+        final boolean[] nulls = hasNulls ? new boolean[values.length] : null;
+        if (nulls != null)
+            for (int i = 0; i < values.length; i++)
+                nulls[i] = values[i] == null;
+
+        if (valueClass == Integer.class || valueClass == Long.class || valueClass == Short.class || valueClass == Byte.class) {
+            final long[] longValues = new long[values.length];
+            for (int i = 0; i < values.length; i++)
+                if (values[i] != null)
+                    longValues[i] = ((Number) values[i]).longValue();
+
+            return new LongKey(longValues, nulls, descending);
+        }
+
+        if (valueClass == Date.class || valueClass == java.sql.Date.class) {
+            final long[] longValues = new long[values.length];
+            for (int i = 0; i < values.length; i++)
+                if (values[i] != null)
+                    longValues[i] = ((Date) values[i]).getTime();
+
+            return new LongKey(longValues, nulls, descending);
+        }
+
+        if (valueClass == Boolean.class || valueClass == Character.class) {
+            final long[] longValues = new long[values.length];
+            for (int i = 0; i < values.length; i++)
+                if (values[i] != null)
+                    longValues[i] = values[i] instanceof Boolean ? (((Boolean) values[i]) ? 1 : 0) : (Character) values[i];
+
+            return new LongKey(longValues, nulls, descending);
+        }
+
+        if (valueClass == Double.class || valueClass == Float.class) {
+            final double[] doubleValues = new double[values.length];
+            for (int i = 0; i < values.length; i++)
+                if (values[i] != null)
+                    doubleValues[i] = ((Number) values[i]).doubleValue();
+
+            return new DoubleKey(doubleValues, nulls, descending);
+        }
+
+        if (Comparable.class.isAssignableFrom(valueClass))
+            return new LongKey(getRanks(values), nulls, descending);
+
+        return new ObjectKey(values, descending);
+    }
+
+    /**
+     * Replace values of the same comparable class by their ranks (equal values have equal ranks)
+     *
+     * @return ranks of values
+     */
+    private static long[] getRanks(Object[] values) {
+        final Map<Object, Integer> distinctIndexes = new HashMap<>();
+        final int[] indexes = new int[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                Integer index = distinctIndexes.get(values[i]);
+                if (index == null) {
+                    index = distinctIndexes.size();
+                    distinctIndexes.put(values[i], index);
+                }
+
+                indexes[i] = index;
+            }
+        }
+
+        final Object[] distinctValues = new Object[distinctIndexes.size()];
+        for (Map.Entry<Object, Integer> entry : distinctIndexes.entrySet())
+            distinctValues[entry.getValue()] = entry.getKey();
+
+        final Integer[] order = new Integer[distinctValues.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer index1, Integer index2) {
+                // noinspection unchecked
+                return ((Comparable) distinctValues[index1]).compareTo(distinctValues[index2]);
+            }
+        });
+
+        // values which are not equal but compareTo returns 0 (1.0 and 1.00) get the same rank
+        final long[] distinctRanks = new long[distinctValues.length];
+        for (int i = 1; i < order.length; i++) {
+            // noinspection unchecked
+            final boolean same = ((Comparable) distinctValues[order[i - 1]]).compareTo(distinctValues[order[i]]) == 0;
+            distinctRanks[order[i]] = same ? distinctRanks[order[i - 1]] : distinctRanks[order[i - 1]] + 1;
+        }
+
+        final long[] ranks = new long[values.length];
+        for (int i = 0; i < values.length; i++)
+            if (values[i] != null)
+                ranks[i] = distinctRanks[indexes[i]];
+
+        return ranks;
+    }
+
+    private abstract static class Key {
+        private final boolean descending;
+
+        Key(boolean descending) {
+            this.descending = descending;
+        }
+
+        final int compare(int position1, int position2) {
+            final int result = compareAscending(position1, position2);
+            return descending ? -result : result;
+        }
+
+        abstract int compareAscending(int position1, int position2);
+    }
+
+    private static final class LongKey extends Key {
+        private final long[] values;
+        private final boolean[] nulls;
+
+        LongKey(long[] values, boolean[] nulls, boolean descending) {
+            super(descending);
+            this.values = values;
+            this.nulls = nulls;
+        }
+
+        @Override
+        int compareAscending(int position1, int position2) {
+            if (nulls != null && (nulls[position1] || nulls[position2]))
+                return nulls[position1] ? (nulls[position2] ? 0 : -1) : 1;
+
+            return Long.compare(values[position1], values[position2]);
+        }
+    }
+
+    private static final class DoubleKey extends Key {
+        private final double[] values;
+        private final boolean[] nulls;
+
+        DoubleKey(double[] values, boolean[] nulls, boolean descending) {
+            super(descending);
+            this.values = values;
+            this.nulls = nulls;
+        }
+
+        @Override
+        int compareAscending(int position1, int position2) {
+            if (nulls != null && (nulls[position1] || nulls[position2]))
+                return nulls[position1] ? (nulls[position2] ? 0 : -1) : 1;
+
+            return Double.compare(values[position1], values[position2]);
+        }
+    }
+
+    private static final class ObjectKey extends Key {
+        private static final GroovyMultilineDocumentObjectComparator objectComparator = new GroovyMultilineDocumentObjectComparator();
+
+        private final Object[] values;
+
+        ObjectKey(Object[] values, boolean descending) {
+            super(descending);
+            this.values = values;
+        }
+
+        @Override
+        int compareAscending(int position1, int position2) {
+            return objectComparator.compare(values[position1], values[position2]);
+        }
+    }
+
+    /**
+     * Merge sort: chunks are sorted by one thread, sorted halves are merged
+     */
+    private final class SortTask extends RecursiveAction {
+        private final int[] positions;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        SortTask(int[] positions, int[] buffer, int from, int to, int chunkSize) {
+            this.positions = positions;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                mergeSort(positions, buffer, from, to);
+                return;
+            }
+
+            final int middle = (from + to) >>> 1;
+            invokeAll(new SortTask(positions, buffer, from, middle, chunkSize),
+                    new SortTask(positions, buffer, middle, to, chunkSize));
+
+            merge(positions, buffer, from, middle, to);
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package gscript.factory.document.query.criterion;
 
 import gscript.factory.document.GroovyMultilineDocument;
+import gscript.util.bitmap.CompressedBitmap;
 
-import java.util.List;
+import java.util.*;
 
 public abstract class GroovyMultilineDocumentQueryCriterion {
 
@@ -22,7 +23,7 @@ public abstract class GroovyMultilineDocumentQueryCriterion {
     }
 
     /**
-     * Create criterion for collection field
+     * Create criterion for collection field (not supported by queries yet)
      *
      * @param criterion criterion for field
      * @return criterion
@@ -147,7 +148,8 @@ public abstract class GroovyMultilineDocumentQueryCriterion {
     }
 
     /**
-     * Create criterion: fieldValue 'sql like' value
+     * Create criterion: fieldValue 'sql like' value (ignoring case, '%' - any characters, '_' - any character,
+     * '\\' - escape character)
      *
      * @param fieldName field value
      * @param value     value
@@ -157,23 +159,36 @@ public abstract class GroovyMultilineDocumentQueryCriterion {
     }
 
     /**
-     * Create criterion: fieldValue starts with value
+     * Create criterion: fieldValue 'sql like' value (ignoring case)
+     *
+     * @param fieldName  field value
+     * @param value      value
+     * @param escapeChar escape character
+     */
+    public static GroovyMultilineDocumentQueryCriterion like(String fieldName, String value, char escapeChar) {
+        return new GroovyMultilineDocumentQueryFieldCriterionLike(fieldName, value, escapeChar);
+    }
+
+    /**
+     * Create criterion: fieldValue starts with value (ignoring case)
      *
      * @param fieldName field value
      * @param value     value
      */
     public static <T> GroovyMultilineDocumentQueryCriterion startsWith(String fieldName, String value) {
-        return new GroovyMultilineDocumentQueryFieldCriterionLike(fieldName, value + "%");
+        return new GroovyMultilineDocumentQueryFieldCriterionLike(fieldName,
+                GroovyMultilineDocumentLikePattern.escape(value, GroovyMultilineDocumentQueryFieldCriterionLike.DEFAULT_ESCAPE_CHAR) + "%");
     }
 
     /**
-     * Create criterion: fieldValue contains value
+     * Create criterion: fieldValue contains value (ignoring case)
      *
      * @param fieldName field value
      * @param value     value
      */
     public static GroovyMultilineDocumentQueryCriterion contains(String fieldName, String value) {
-        return new GroovyMultilineDocumentQueryFieldCriterionLike(fieldName, "%" + value + "%");
+        return new GroovyMultilineDocumentQueryFieldCriterionLike(fieldName,
+                "%" + GroovyMultilineDocumentLikePattern.escape(value, GroovyMultilineDocumentQueryFieldCriterionLike.DEFAULT_ESCAPE_CHAR) + "%");
     }
 
     /**
@@ -202,5 +217,83 @@ public abstract class GroovyMultilineDocumentQueryCriterion {
      */
     public abstract List<GroovyMultilineDocument.Line> select(List<GroovyMultilineDocument.Line> lines);
 
+    /**
+     * Check document line using criterion
+     *
+     * @param line document line
+     * @return true if line is accepted by criterion
+     */
+    public abstract boolean matches(GroovyMultilineDocument.Line line);
+
+    /**
+     * Find document rows which may be accepted by this criterion, using document indices
+     *
+     * @param document document
+     * @return sorted rows or null if there is no suitable index
+     */
+    public int[] getIndexedRows(GroovyMultilineDocument document) {
+        return null;
+    }
+
+    /**
+     * Estimate fraction of document lines accepted by this criterion, using document column statistics
+     *
+     * @param document document
+     * @return fraction from 0 to 1 (1 if there are no statistics)
+     */
+    public double getSelectivity(GroovyMultilineDocument document) {
+        return 1;
+    }
+
+    /**
+     * Order criteria joined by "AND", so the most selective criteria are checked first
+     * (criteria with equal selectivity keep their order)
+     *
+     * @param criteria criteria
+     * @param document document
+     * @return ordered criteria
+     */
+    public static List<GroovyMultilineDocumentQueryCriterion> orderBySelectivity(List<GroovyMultilineDocumentQueryCriterion> criteria,
+                                                                                 final GroovyMultilineDocument document) {
+        if (criteria.size() < 2)
+            return criteria;
+
+        final Map<GroovyMultilineDocumentQueryCriterion, Double> selectivities = new IdentityHashMap<>();
+        boolean estimated = false;
+        for (GroovyMultilineDocumentQueryCriterion criterion : criteria) {
+            final double selectivity = criterion.getSelectivity(document);
+            selectivities.put(criterion, selectivity);
+            estimated |= selectivity < 1;
+        }
+
+        if (!estimated)
+            return criteria;
+
+        final List<GroovyMultilineDocumentQueryCriterion> result = new ArrayList<>(criteria);
+        Collections.sort(result, new Comparator<GroovyMultilineDocumentQueryCriterion>() {
+            @Override
+            public int compare(GroovyMultilineDocumentQueryCriterion criterion1, GroovyMultilineDocumentQueryCriterion criterion2) {
+                return Double.compare(selectivities.get(criterion1), selectivities.get(criterion2));
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Check lines at given positions using criterion
+     *
+     * @param lines     source lines (random access list)
+     * @param positions positions of lines to check
+     * @return positions of accepted lines
+     */
+    CompressedBitmap selectPositions(List<GroovyMultilineDocument.Line> lines, CompressedBitmap positions) {
+        final CompressedBitmap result = new CompressedBitmap();
+        for (int position : positions.toArray())
+            if (matches(lines.get(position)))
+                result.add(position);
+
+        return result;
+    }
 
 }
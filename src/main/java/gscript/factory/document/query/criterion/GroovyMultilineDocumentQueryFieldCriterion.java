@@ -1,6 +1,8 @@
 package gscript.factory.document.query.criterion;
 
 import gscript.factory.document.GroovyMultilineDocument;
+import gscript.factory.document.GroovyMultilineDocumentColumnStats;
+import gscript.util.bitmap.CompressedBitmap;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -9,6 +11,16 @@ public abstract class GroovyMultilineDocumentQueryFieldCriterion extends GroovyM
 
     protected static final GroovyMultilineDocumentObjectComparator objectComparator = new GroovyMultilineDocumentObjectComparator();
 
+    /**
+     * Selectivity of range criterion when values can't be interpolated
+     */
+    protected static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3;
+
+    /**
+     * Rows of criterion which can't accept any line
+     */
+    protected static final int[] NO_ROWS = new int[0];
+
     protected final String fieldName;
 
     protected GroovyMultilineDocumentQueryFieldCriterion(String fieldName) {
@@ -23,16 +35,74 @@ public abstract class GroovyMultilineDocumentQueryFieldCriterion extends GroovyM
     public List<GroovyMultilineDocument.Line> select(List<GroovyMultilineDocument.Line> lines) {
         final List<GroovyMultilineDocument.Line> result = new ArrayList<>();
 
-        for (GroovyMultilineDocument.Line line : lines) {
-            if (line.containsKey(fieldName)) {
-                if (accept(line.get(fieldName)))
-                    result.add(line);
+        // all document lines are selected using index if it exists
+        if (!lines.isEmpty()) {
+            final GroovyMultilineDocument document = lines.get(0).getDocument();
+
+            if (lines == document.getLines()) {
+                final int[] rows = getIndexedRows(document);
+                final List<GroovyMultilineDocument.Line> indexedLines = rows != null ? document.getLines(rows) : null;
+
+                if (indexedLines != null)
+                    lines = indexedLines;
             }
         }
 
+        for (GroovyMultilineDocument.Line line : lines)
+            if (matches(line))
+                result.add(line);
+
         return result;
     }
 
+    @Override
+    CompressedBitmap selectPositions(List<GroovyMultilineDocument.Line> lines, CompressedBitmap positions) {
+        // positions of document lines are their rows until lines are reordered
+        if (!lines.isEmpty()) {
+            final GroovyMultilineDocument document = lines.get(0).getDocument();
+
+            if (lines == document.getLines()) {
+                final int[] rows = getIndexedRows(document);
+
+                if (rows != null && document.getLines(rows) != null)
+                    positions = positions.and(CompressedBitmap.of(rows));
+            }
+        }
+
+        return super.selectPositions(lines, positions);
+    }
+
+    /**
+     * Get statistics of field values whose min and max values can be compared with value
+     * (field values have the same comparable class as value)
+     *
+     * @return statistics or null
+     */
+    protected GroovyMultilineDocumentColumnStats getRangeStats(GroovyMultilineDocument document, Object value) {
+        final GroovyMultilineDocumentColumnStats stats = document.getColumnStats(fieldName);
+        if (stats == null || value == null)
+            return null;
+
+        final Object min = stats.getMin();
+        return min != null && min.getClass() == value.getClass() ? stats : null;
+    }
+
+    /**
+     * @return fraction of lines with not null field value (1 if there are no statistics)
+     */
+    protected double getNotNullFraction(GroovyMultilineDocumentColumnStats stats) {
+        if (stats == null)
+            return 1;
+
+        final long total = stats.getCount() + stats.getNullCount();
+        return total > 0 ? (double) stats.getCount() / total : 0;
+    }
+
+    @Override
+    public boolean matches(GroovyMultilineDocument.Line line) {
+        return line.containsKey(fieldName) && accept(line.get(fieldName));
+    }
+
     protected abstract boolean accept(Object value);
 
 }
@@ -1,5 +1,9 @@
 package gscript.factory.document.query.criterion;
 
+import gscript.factory.document.GroovyMultilineDocument;
+import gscript.factory.document.GroovyMultilineDocumentColumnStats;
+import gscript.factory.document.GroovyMultilineDocumentSortedIndex;
+
 public class GroovyMultilineDocumentQueryFieldCriterionBetween extends GroovyMultilineDocumentQueryFieldCriterion {
 
     private final Object leftValue;
@@ -15,6 +19,31 @@ public class GroovyMultilineDocumentQueryFieldCriterionBetween extends GroovyMul
         this.includeRight = includeRight;
     }
 
+    @Override
+    public int[] getIndexedRows(GroovyMultilineDocument document) {
+        // range of field values does not intersect range of criterion
+        final GroovyMultilineDocumentColumnStats stats = getRangeStats(document, leftValue);
+        if (stats != null && getRangeStats(document, rightValue) != null) {
+            final int maxResult = objectComparator.compare(stats.getMax(), leftValue);
+            final int minResult = objectComparator.compare(stats.getMin(), rightValue);
+            if (maxResult < 0 || maxResult == 0 && !includeLeft || minResult > 0 || minResult == 0 && !includeRight)
+                return NO_ROWS;
+        }
+
+        final GroovyMultilineDocumentSortedIndex index = document.getSortedIndex(fieldName);
+        return index != null ? index.getRowsBetween(leftValue, includeLeft, rightValue, includeRight) : null;
+    }
+
+    @Override
+    public double getSelectivity(GroovyMultilineDocument document) {
+        final GroovyMultilineDocumentColumnStats stats = document.getColumnStats(fieldName);
+        if (stats == null)
+            return 1;
+
+        final double fraction = stats.getRangeFraction(rightValue) - stats.getRangeFraction(leftValue);
+        return getNotNullFraction(stats) * (Double.isNaN(fraction) ? DEFAULT_RANGE_SELECTIVITY : Math.max(0, fraction));
+    }
+
     @Override
     protected boolean accept(Object value) {
         final int comparisonResultLeft = objectComparator.compare(value, leftValue);
@@ -1,5 +1,10 @@
 package gscript.factory.document.query.criterion;
 
+import gscript.factory.document.GroovyMultilineDocument;
+import gscript.factory.document.GroovyMultilineDocumentColumnStats;
+import gscript.factory.document.GroovyMultilineDocumentIndex;
+import gscript.factory.document.GroovyMultilineDocumentSortedIndex;
+
 public class GroovyMultilineDocumentQueryFieldCriterionEqual extends GroovyMultilineDocumentQueryFieldCriterion {
 
     private final Object value;
@@ -19,6 +24,44 @@ public class GroovyMultilineDocumentQueryFieldCriterionEqual extends GroovyMulti
         return inverse;
     }
 
+    @Override
+    public int[] getIndexedRows(GroovyMultilineDocument document) {
+        if (inverse)
+            return null;
+
+        final GroovyMultilineDocumentColumnStats stats = document.getColumnStats(fieldName);
+        if (stats != null && (value == null ? stats.getNullCount() == 0 : stats.getCount() == 0))
+            return NO_ROWS;
+
+        // value is out of range of field values
+        final GroovyMultilineDocumentColumnStats rangeStats = getRangeStats(document, value);
+        if (rangeStats != null && (objectComparator.compare(value, rangeStats.getMin()) < 0 ||
+                objectComparator.compare(value, rangeStats.getMax()) > 0))
+            return NO_ROWS;
+
+        final GroovyMultilineDocumentIndex index = document.getIndex(fieldName);
+        if (index != null)
+            return index.getRows(value);
+
+        final GroovyMultilineDocumentSortedIndex sortedIndex = document.getSortedIndex(fieldName);
+        return sortedIndex != null && value != null ? sortedIndex.getRowsBetween(value, true, value, true) : null;
+    }
+
+    @Override
+    public double getSelectivity(GroovyMultilineDocument document) {
+        final GroovyMultilineDocumentColumnStats stats = document.getColumnStats(fieldName);
+        if (stats == null)
+            return 1;
+
+        final double selectivity;
+        if (value == null)
+            selectivity = 1 - getNotNullFraction(stats);
+        else
+            selectivity = getNotNullFraction(stats) / Math.max(1, stats.getDistinctCount());
+
+        return inverse ? 1 - selectivity : selectivity;
+    }
+
     @Override
     protected boolean accept(Object value) {
         return ((objectComparator.compare(value, this.value) == 0) == !inverse);
@@ -1,5 +1,6 @@
 package gscript.factory.document.query.criterion;
 
+import gscript.GroovyException;
 import gscript.factory.document.GroovyMultilineDocument;
 
 import java.util.List;
@@ -19,4 +20,9 @@ public class GroovyMultilineDocumentQueryFieldCriterionField extends GroovyMulti
         // todo it
         return null;
     }
+
+    @Override
+    public boolean matches(GroovyMultilineDocument.Line line) {
+        throw new GroovyException("forField criterion is not supported");
+    }
 }
@@ -1,5 +1,9 @@
 package gscript.factory.document.query.criterion;
 
+import gscript.factory.document.GroovyMultilineDocument;
+import gscript.factory.document.GroovyMultilineDocumentColumnStats;
+import gscript.factory.document.GroovyMultilineDocumentIndex;
+
 public class GroovyMultilineDocumentQueryFieldCriterionIn extends GroovyMultilineDocumentQueryFieldCriterion {
 
     private final Object[] values;
@@ -9,6 +13,21 @@ public class GroovyMultilineDocumentQueryFieldCriterionIn extends GroovyMultilin
         this.values = values;
     }
 
+    @Override
+    public int[] getIndexedRows(GroovyMultilineDocument document) {
+        final GroovyMultilineDocumentIndex index = document.getIndex(fieldName);
+        return index != null ? index.getRowsOfAny(values) : null;
+    }
+
+    @Override
+    public double getSelectivity(GroovyMultilineDocument document) {
+        final GroovyMultilineDocumentColumnStats stats = document.getColumnStats(fieldName);
+        if (stats == null)
+            return 1;
+
+        return getNotNullFraction(stats) * Math.min(1, (double) values.length / Math.max(1, stats.getDistinctCount()));
+    }
+
     @Override
     protected boolean accept(Object value) {
         final int valuesCount = values.length;
@@ -1,5 +1,9 @@
 package gscript.factory.document.query.criterion;
 
+import gscript.factory.document.GroovyMultilineDocument;
+import gscript.factory.document.GroovyMultilineDocumentColumnStats;
+import gscript.factory.document.GroovyMultilineDocumentSortedIndex;
+
 public class GroovyMultilineDocumentQueryFieldCriterionLess extends GroovyMultilineDocumentQueryFieldCriterion {
 
     private final Object value;
@@ -11,6 +15,31 @@ public class GroovyMultilineDocumentQueryFieldCriterionLess extends GroovyMultil
         this.include = include;
     }
 
+    @Override
+    public int[] getIndexedRows(GroovyMultilineDocument document) {
+        // all field values are greater (null values are accepted as the least values)
+        final GroovyMultilineDocumentColumnStats stats = getRangeStats(document, value);
+        if (stats != null && stats.getNullCount() == 0) {
+            final int comparisonResult = objectComparator.compare(stats.getMin(), value);
+            if (comparisonResult > 0 || comparisonResult == 0 && !include)
+                return NO_ROWS;
+        }
+
+        final GroovyMultilineDocumentSortedIndex index = document.getSortedIndex(fieldName);
+        return index != null ? index.getRowsBetween(null, false, value, include) : null;
+    }
+
+    @Override
+    public double getSelectivity(GroovyMultilineDocument document) {
+        final GroovyMultilineDocumentColumnStats stats = document.getColumnStats(fieldName);
+        if (stats == null)
+            return 1;
+
+        final double fraction = stats.getRangeFraction(value);
+        final double notNullFraction = getNotNullFraction(stats);
+        return 1 - notNullFraction + notNullFraction * (Double.isNaN(fraction) ? DEFAULT_RANGE_SELECTIVITY : fraction);
+    }
+
     @Override
     protected boolean accept(Object value) {
         final int comparisonResult = objectComparator.compare(value, this.value);
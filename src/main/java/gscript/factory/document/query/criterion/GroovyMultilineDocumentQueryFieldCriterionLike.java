@@ -1,32 +1,43 @@
 package gscript.factory.document.query.criterion;
 
+import gscript.factory.document.GroovyMultilineDocument;
+import gscript.factory.document.GroovyMultilineDocumentTextIndex;
+
 public class GroovyMultilineDocumentQueryFieldCriterionLike extends GroovyMultilineDocumentQueryFieldCriterion {
 
+    /**
+     * Default escape character of like pattern
+     */
+    static final char DEFAULT_ESCAPE_CHAR = '\\';
+
     private final String value;
+    private final GroovyMultilineDocumentLikePattern pattern;
 
     GroovyMultilineDocumentQueryFieldCriterionLike(String fieldName, String value) {
+        this(fieldName, value, DEFAULT_ESCAPE_CHAR);
+    }
+
+    GroovyMultilineDocumentQueryFieldCriterionLike(String fieldName, String value, char escapeChar) {
         super(fieldName);
         this.value = value;
+        this.pattern = value != null ? new GroovyMultilineDocumentLikePattern(value, escapeChar) : null;
+    }
+
+    @Override
+    public int[] getIndexedRows(GroovyMultilineDocument document) {
+        if (pattern == null)
+            return null;
+
+        final GroovyMultilineDocumentTextIndex index = document.getTextIndex(fieldName);
+        return index != null ? index.getRowsContaining(pattern.getLiterals()) : null;
     }
 
     @Override
     protected boolean accept(Object value) {
-        if (value == null) {
-            if (this.value == null)
-                return true;
-        } else if (this.value != null) {
-            if (value instanceof String) {
-                if (this.value.startsWith("%") && this.value.endsWith("%")) {
-                    if (((String) value).toUpperCase().contains(this.value.replaceAll("%", "").toUpperCase()))
-                        return true;
-                } else if (this.value.startsWith("%")) {
-                    if (((String) value).startsWith(this.value.replaceAll("%", "")))
-                        return true;
-                }
-            }
-        }
-
-        return false;
+        if (value == null)
+            return this.value == null;
+
+        return pattern != null && value instanceof String && pattern.matches((String) value);
     }
 
 }
@@ -1,5 +1,9 @@
 package gscript.factory.document.query.criterion;
 
+import gscript.factory.document.GroovyMultilineDocument;
+import gscript.factory.document.GroovyMultilineDocumentColumnStats;
+import gscript.factory.document.GroovyMultilineDocumentSortedIndex;
+
 public class GroovyMultilineDocumentQueryFieldCriterionMore extends GroovyMultilineDocumentQueryFieldCriterion {
 
     private final Object value;
@@ -11,6 +15,30 @@ public class GroovyMultilineDocumentQueryFieldCriterionMore extends GroovyMultil
         this.include = include;
     }
 
+    @Override
+    public int[] getIndexedRows(GroovyMultilineDocument document) {
+        // all field values are less (null values are not accepted)
+        final GroovyMultilineDocumentColumnStats stats = getRangeStats(document, value);
+        if (stats != null) {
+            final int comparisonResult = objectComparator.compare(stats.getMax(), value);
+            if (comparisonResult < 0 || comparisonResult == 0 && !include)
+                return NO_ROWS;
+        }
+
+        final GroovyMultilineDocumentSortedIndex index = document.getSortedIndex(fieldName);
+        return index != null ? index.getRowsBetween(value, include, null, false) : null;
+    }
+
+    @Override
+    public double getSelectivity(GroovyMultilineDocument document) {
+        final GroovyMultilineDocumentColumnStats stats = document.getColumnStats(fieldName);
+        if (stats == null)
+            return 1;
+
+        final double fraction = stats.getRangeFraction(value);
+        return getNotNullFraction(stats) * (Double.isNaN(fraction) ? DEFAULT_RANGE_SELECTIVITY : 1 - fraction);
+    }
+
     @Override
     protected boolean accept(Object value) {
         final int comparisonResult = objectComparator.compare(value, this.value);
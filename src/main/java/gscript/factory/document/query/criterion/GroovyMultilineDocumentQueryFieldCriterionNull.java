@@ -1,5 +1,8 @@
 package gscript.factory.document.query.criterion;
 
+import gscript.factory.document.GroovyMultilineDocument;
+import gscript.factory.document.GroovyMultilineDocumentColumnStats;
+
 public class GroovyMultilineDocumentQueryFieldCriterionNull extends GroovyMultilineDocumentQueryFieldCriterion {
 
     private final boolean isNull;
@@ -9,6 +12,24 @@ public class GroovyMultilineDocumentQueryFieldCriterionNull extends GroovyMultil
         this.isNull = isNull;
     }
 
+    @Override
+    public int[] getIndexedRows(GroovyMultilineDocument document) {
+        final GroovyMultilineDocumentColumnStats stats = document.getColumnStats(fieldName);
+        if (stats != null && (isNull ? stats.getNullCount() : stats.getCount()) == 0)
+            return NO_ROWS;
+
+        return null;
+    }
+
+    @Override
+    public double getSelectivity(GroovyMultilineDocument document) {
+        final GroovyMultilineDocumentColumnStats stats = document.getColumnStats(fieldName);
+        if (stats == null)
+            return 1;
+
+        return isNull ? 1 - getNotNullFraction(stats) : getNotNullFraction(stats);
+    }
+
     @Override
     protected boolean accept(Object value) {
         return ((value == null) == isNull);
@@ -1,6 +1,7 @@
 package gscript.factory.document.query.criterion;
 
 import gscript.factory.document.GroovyMultilineDocument;
+import gscript.util.bitmap.CompressedBitmap;
 
 import java.util.*;
 
@@ -65,22 +66,123 @@ public class GroovyMultilineDocumentQueryGroupCriterion extends GroovyMultilineD
         if (isEmpty())
             return lines;
 
-        final Map<GroovyMultilineDocumentQueryCriterion, List<GroovyMultilineDocument.Line>> criterionResult = new LinkedHashMap<>();
-        for (GroovyMultilineDocumentQueryCriterion criterion : criterionList)
-            criterionResult.put(criterion, criterion.select(lines));
+        if (!(lines instanceof RandomAccess))
+            lines = new ArrayList<>(lines);
+
+        final int[] positions = selectPositions(lines, CompressedBitmap.range(0, lines.size())).toArray();
+
+        // lines keep source order
+        final List<GroovyMultilineDocument.Line> result = new ArrayList<>(positions.length);
+        for (int position : positions)
+            result.add(lines.get(position));
 
-        Set<GroovyMultilineDocument.Line> result = null;
-        for (GroovyMultilineDocumentQueryCriterion criterion : criterionResult.keySet()) {
+        return result;
+    }
+
+    @Override
+    CompressedBitmap selectPositions(List<GroovyMultilineDocument.Line> lines, CompressedBitmap positions) {
+        if (isEmpty())
+            return positions;
+
+        // criteria are applied from left to right: "AND" criterion checks only accepted lines,
+        // "OR" criterion checks only rejected lines. Criteria of conjunction are reordered, so all of them
+        // are applied as "AND" (first criterion may be added by "or")
+        final boolean conjunction = isConjunction() && !lines.isEmpty();
+        final List<GroovyMultilineDocumentQueryCriterion> criteria = conjunction ?
+                orderBySelectivity(criterionList, lines.get(0).getDocument()) : criterionList;
+
+        CompressedBitmap result = null;
+        for (GroovyMultilineDocumentQueryCriterion criterion : criteria) {
             if (result == null) {
-                result = new HashSet<>();
-                result.addAll(criterionResult.get(criterion));
+                result = criterion.selectPositions(lines, positions);
+            } else if (conjunction || criterion.logical == Logical.AND) {
+                if (!result.isEmpty())
+                    result = criterion.selectPositions(lines, result);
+            } else if (criterion.logical == Logical.OR) {
+                final CompressedBitmap rejected = positions.andNot(result);
+                if (!rejected.isEmpty())
+                    result = result.or(criterion.selectPositions(lines, rejected));
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public int[] getIndexedRows(GroovyMultilineDocument document) {
+        // null means that any row may be accepted
+        CompressedBitmap result = null;
+        boolean first = true;
+
+        for (GroovyMultilineDocumentQueryCriterion criterion : criterionList) {
+            if (!first && criterion.logical == Logical.OR && result == null)
+                continue;
+
+            final int[] rows = criterion.getIndexedRows(document);
+
+            if (first) {
+                result = rows != null ? CompressedBitmap.of(rows) : null;
+                first = false;
+            } else if (criterion.logical == Logical.AND) {
+                if (rows != null)
+                    result = result != null ? result.and(CompressedBitmap.of(rows)) : CompressedBitmap.of(rows);
+            } else if (criterion.logical == Logical.OR) {
+                result = result != null && rows != null ? result.or(CompressedBitmap.of(rows)) : null;
+            }
+        }
+
+        return result != null ? result.toArray() : null;
+    }
+
+    @Override
+    public double getSelectivity(GroovyMultilineDocument document) {
+        if (!isConjunction())
+            return 1;
+
+        double selectivity = 1;
+        for (GroovyMultilineDocumentQueryCriterion criterion : criterionList)
+            selectivity *= criterion.getSelectivity(document);
+
+        return selectivity;
+    }
+
+    /**
+     * @return true if all criteria are joined by "AND" (criteria may be checked in any order)
+     */
+    private boolean isConjunction() {
+        boolean first = true;
+        for (GroovyMultilineDocumentQueryCriterion criterion : criterionList) {
+            if (!first && criterion.logical != Logical.AND)
+                return false;
+
+            first = false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean matches(GroovyMultilineDocument.Line line) {
+        if (isEmpty())
+            return true;
+
+        // criteria are applied from left to right, criteria which can't change result are not checked
+        // ("AND" criterion after rejection, "OR" criterion after acceptance)
+        boolean result = false;
+        boolean first = true;
+        for (GroovyMultilineDocumentQueryCriterion criterion : criterionList) {
+            if (first) {
+                result = criterion.matches(line);
+                first = false;
             } else if (criterion.logical == Logical.AND) {
-                result.retainAll(criterionResult.get(criterion));
+                if (result)
+                    result = criterion.matches(line);
             } else if (criterion.logical == Logical.OR) {
-                result.addAll(criterionResult.get(criterion));
+                if (!result)
+                    result = criterion.matches(line);
             }
         }
 
-        return result != null ? new ArrayList<>(result) : new ArrayList<GroovyMultilineDocument.Line>();
+        return result;
     }
 }
@@ -6,6 +6,7 @@ import gscript.factory.database.hsqldb.GroovyHSQLDBTable;
 import gscript.factory.database.hsqldb.GroovyHSQLDBTableStruct;
 import gscript.factory.document.RegExp;
 import gscript.factory.format.GroovyStringJoiner;
+import gscript.util.dictionary.StringDictionary;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
@@ -36,6 +37,7 @@ public class GroovyCSVFileReader implements AutoCloseable {
     private List<ColumnDefinition> columns = new ArrayList<>();
     private boolean skipFirstNext = false;
     private String[] currentRecord;
+    private StringDictionary[] dictionaries;
 
     public GroovyCSVFileReader(Factory factory, File file, String encoding, String separator, int readFromLine, boolean containsHeader) throws Exception {
         factory.registerAutoCloseable(this);
@@ -197,10 +199,9 @@ public class GroovyCSVFileReader implements AutoCloseable {
         if (iterator.hasNext()) {
             final CSVRecord record = iterator.next();
 
-            currentRecord = new String[0];
-
-            for (String value : record)
-                currentRecord = ArrayUtils.add(currentRecord, value);
+            currentRecord = new String[record.size()];
+            for (int i = 0; i < currentRecord.length; i++)
+                currentRecord[i] = record.get(i);
 
             return true;
         }
@@ -229,7 +230,7 @@ public class GroovyCSVFileReader implements AutoCloseable {
 
         switch (columnDefinition.getSqlType()) {
             case Types.VARCHAR:
-                return currentRecord[column];
+                return intern(column, currentRecord[column]);
             case Types.INTEGER:
                 if (columnDefinition.size > 10)
                     return Long.parseLong(currentRecord[column]);
@@ -243,7 +244,17 @@ public class GroovyCSVFileReader implements AutoCloseable {
                 return "true".equals(currentRecord[column].toLowerCase()) || "1".equals(currentRecord[column]);
         }
 
-        return currentRecord[column];
+        return intern(column, currentRecord[column]);
+    }
+
+    /**
+     * Repeated values of column share string instance
+     */
+    private String intern(int column, String value) {
+        if (dictionaries == null)
+            dictionaries = StringDictionary.create(columns.size());
+
+        return column < dictionaries.length ? dictionaries[column].intern(value) : value;
     }
 
     public Object[] getObjects() throws Exception {
@@ -257,7 +268,7 @@ public class GroovyCSVFileReader implements AutoCloseable {
     public String getString(int column) {
         assertCurrentRow();
 
-        return "".equals(currentRecord[column]) ? null : currentRecord[column];
+        return "".equals(currentRecord[column]) ? null : intern(column, currentRecord[column]);
     }
 
     public Integer getInteger(int column) {
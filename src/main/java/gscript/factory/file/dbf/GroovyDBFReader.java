@@ -1,5 +1,6 @@
 package gscript.factory.file.dbf;
 
+import gscript.util.dictionary.StringDictionary;
 import org.apache.commons.lang3.ArrayUtils;
 
 import java.io.DataInputStream;
@@ -12,6 +13,7 @@ public final class GroovyDBFReader {
     private String encoding;
     private DataInputStream stream;
     private GroovyDBFField[] fields;
+    private StringDictionary[] dictionaries;
     private byte[] nextRecord;
     private int recordCount;
 
@@ -37,6 +39,9 @@ public final class GroovyDBFReader {
                 j += fields[k].getLength();
             }
 
+            // repeated values of character fields share string instances
+            dictionaries = StringDictionary.create(i);
+
             if (stream.read() < 1)
                 throw new GroovyDBFException("Unexpected end of file reached.");
 
@@ -160,6 +165,9 @@ public final class GroovyDBFReader {
             for (int j = 0; j < obj.length; j++) {
                 int k = fields[j].getLength();
                 obj[j] = fields[j].parse(new String(nextRecord, i, k, encoding));
+                if (obj[j] instanceof String)
+                    obj[j] = dictionaries[j].intern((String) obj[j]);
+
                 i += fields[j].getLength();
             }
 
@@ -0,0 +1,32 @@
+package gscript.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+public final class ConcurrencyUtils {
+
+    /**
+     * Pools are shared by tasks with the same parallelism (pool threads are daemons)
+     */
+    private static final Map<Integer, ForkJoinPool> pools = new HashMap<>();
+
+    /**
+     * Get shared fork/join pool
+     *
+     * @param parallelism number of threads
+     * @return pool
+     */
+    public static synchronized ForkJoinPool getForkJoinPool(int parallelism) {
+        ForkJoinPool pool = pools.get(parallelism);
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+            pools.put(parallelism, pool);
+        }
+
+        return pool;
+    }
+
+    private ConcurrencyUtils() {
+    }
+}
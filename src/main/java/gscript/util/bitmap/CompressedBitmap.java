@@ -0,0 +1,520 @@
+package gscript.util.bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Compressed bitmap of non-negative integers (roaring bitmap).
+ * <p>
+ * Integers are split into chunks by high 16 bits. Sparse chunk is kept as sorted array of low 16 bits,
+ * dense chunk is kept as 65536 bits, so intersection and union of dense chunks are done word by word.
+ */
+public final class CompressedBitmap {
+
+    /**
+     * Max cardinality of array chunk
+     */
+    private static final int ARRAY_MAX_SIZE = 4096;
+
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+    private int size;
+
+    /**
+     * Create bitmap from sorted integers
+     *
+     * @param values sorted values
+     * @return bitmap
+     */
+    public static CompressedBitmap of(int[] values) {
+        final CompressedBitmap bitmap = new CompressedBitmap();
+        for (int value : values)
+            bitmap.add(value);
+
+        return bitmap;
+    }
+
+    /**
+     * Create bitmap with all integers of range
+     *
+     * @param from first value (inclusive)
+     * @param to   last value (exclusive)
+     * @return bitmap
+     */
+    public static CompressedBitmap range(int from, int to) {
+        final CompressedBitmap bitmap = new CompressedBitmap();
+
+        while (from < to) {
+            final int high = from >>> 16;
+            final int chunkEnd = Math.min(to, (high + 1) << 16);
+            final BitmapContainer container = new BitmapContainer();
+            container.setRange(from & 0xFFFF, chunkEnd - (high << 16));
+            bitmap.append((char) high, container.cardinality <= ARRAY_MAX_SIZE ? container.toArrayContainer() : container);
+            from = chunkEnd;
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Add integer to bitmap (adding in ascending order is the fastest)
+     *
+     * @param value not negative integer
+     */
+    public void add(int value) {
+        final char high = (char) (value >>> 16);
+        final char low = (char) value;
+
+        if (size > 0 && keys[size - 1] == high) {
+            containers[size - 1] = containers[size - 1].add(low);
+            return;
+        }
+
+        final int index = indexOf(high);
+        if (index >= 0) {
+            containers[index] = containers[index].add(low);
+        } else {
+            insert(-index - 1, high, new ArrayContainer().add(low));
+        }
+    }
+
+    /**
+     * Remove integer from bitmap
+     *
+     * @param value not negative integer
+     */
+    public void remove(int value) {
+        final int index = indexOf((char) (value >>> 16));
+        if (index < 0)
+            return;
+
+        containers[index] = containers[index].remove((char) value);
+
+        if (containers[index].cardinality == 0) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+            containers[--size] = null;
+        }
+    }
+
+    public boolean contains(int value) {
+        final int index = indexOf((char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++)
+            cardinality += containers[i].cardinality;
+
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return intersection of bitmaps
+     */
+    public CompressedBitmap and(CompressedBitmap other) {
+        final CompressedBitmap result = new CompressedBitmap();
+        int i = 0, j = 0;
+
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                final Container container = containers[i].and(other.containers[j]);
+                if (container.cardinality > 0)
+                    result.append(keys[i], container);
+
+                i++;
+                j++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return union of bitmaps
+     */
+    public CompressedBitmap or(CompressedBitmap other) {
+        final CompressedBitmap result = new CompressedBitmap();
+        int i = 0, j = 0;
+
+        while (i < size || j < other.size) {
+            if (j >= other.size || i < size && keys[i] < other.keys[j]) {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i >= size || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.append(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return integers of this bitmap which are not in other bitmap
+     */
+    public CompressedBitmap andNot(CompressedBitmap other) {
+        final CompressedBitmap result = new CompressedBitmap();
+        int i = 0, j = 0;
+
+        while (i < size) {
+            if (j >= other.size || keys[i] < other.keys[j]) {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                final Container container = containers[i].andNot(other.containers[j]);
+                if (container.cardinality > 0)
+                    result.append(keys[i], container);
+
+                i++;
+                j++;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return sorted integers of bitmap
+     */
+    public int[] toArray() {
+        final int[] result = new int[getCardinality()];
+        int offset = 0;
+
+        for (int i = 0; i < size; i++)
+            offset = containers[i].toArray(keys[i] << 16, result, offset);
+
+        return result;
+    }
+
+    private int indexOf(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void append(char key, Container container) {
+        insert(size, key, container);
+    }
+
+    private void insert(int index, char key, Container container) {
+        if (size == keys.length) {
+            final int capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+        }
+
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    /**
+     * Values of one chunk (low 16 bits)
+     */
+    private abstract static class Container {
+        int cardinality;
+
+        /**
+         * @return this or new container (when container type is changed)
+         */
+        abstract Container add(char value);
+
+        /**
+         * @return this or new container (when container type is changed)
+         */
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        abstract int toArray(int high, int[] result, int offset);
+
+        abstract BitmapContainer toBitmapContainer();
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+
+        ArrayContainer() {
+            values = new char[4];
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int index;
+            if (cardinality == 0 || values[cardinality - 1] < value) {
+                index = cardinality;
+            } else {
+                index = Arrays.binarySearch(values, 0, cardinality, value);
+                if (index >= 0)
+                    return this;
+
+                index = -index - 1;
+            }
+
+            if (cardinality == ARRAY_MAX_SIZE)
+                return toBitmapContainer().add(value);
+
+            if (cardinality == values.length)
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX_SIZE, cardinality * 2));
+
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            final int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+                cardinality--;
+            }
+
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        Container and(Container other) {
+            final char[] result = new char[cardinality];
+            int count = 0;
+
+            if (other instanceof ArrayContainer) {
+                final ArrayContainer array = (ArrayContainer) other;
+                int i = 0, j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++)
+                    if (other.contains(values[i]))
+                        result[count++] = values[i];
+            }
+
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer)
+                return other.or(this);
+
+            final ArrayContainer array = (ArrayContainer) other;
+            if (cardinality + array.cardinality > ARRAY_MAX_SIZE)
+                return toBitmapContainer().or(other);
+
+            final char[] result = new char[cardinality + array.cardinality];
+            int i = 0, j = 0, count = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j >= array.cardinality || i < cardinality && values[i] < array.values[j]) {
+                    result[count++] = values[i++];
+                } else if (i >= cardinality || values[i] > array.values[j]) {
+                    result[count++] = array.values[j++];
+                } else {
+                    result[count++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            final char[] result = new char[cardinality];
+            int count = 0;
+
+            for (int i = 0; i < cardinality; i++)
+                if (!other.contains(values[i]))
+                    result[count++] = values[i];
+
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+        }
+
+        @Override
+        int toArray(int high, int[] result, int offset) {
+            for (int i = 0; i < cardinality; i++)
+                result[offset++] = high | values[i];
+
+            return offset;
+        }
+
+        @Override
+        BitmapContainer toBitmapContainer() {
+            final BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++)
+                bitmap.words[values[i] >>> 6] |= 1L << values[i];
+
+            bitmap.cardinality = cardinality;
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words = new long[1024];
+
+        void setRange(int from, int to) {
+            for (int i = from; i < to; i++)
+                words[i >>> 6] |= 1L << i;
+
+            cardinality += to - from;
+        }
+
+        @Override
+        Container add(char value) {
+            final long word = words[value >>> 6];
+            final long newWord = word | (1L << value);
+
+            if (word != newWord) {
+                words[value >>> 6] = newWord;
+                cardinality++;
+            }
+
+            return this;
+        }
+
+        @Override
+        Container remove(char value) {
+            final long word = words[value >>> 6];
+            final long newWord = word & ~(1L << value);
+
+            if (word != newWord) {
+                words[value >>> 6] = newWord;
+                cardinality--;
+            }
+
+            return cardinality <= ARRAY_MAX_SIZE ? toArrayContainer() : this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer)
+                return other.and(this);
+
+            final BitmapContainer bitmap = (BitmapContainer) other;
+            final BitmapContainer result = new BitmapContainer();
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] = words[i] & bitmap.words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+
+            return result.cardinality <= ARRAY_MAX_SIZE ? result.toArrayContainer() : result;
+        }
+
+        @Override
+        Container or(Container other) {
+            final BitmapContainer bitmap = other.toBitmapContainer();
+            final BitmapContainer result = new BitmapContainer();
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] = words[i] | bitmap.words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+
+            return result;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            final BitmapContainer bitmap = other.toBitmapContainer();
+            final BitmapContainer result = new BitmapContainer();
+            for (int i = 0; i < words.length; i++) {
+                result.words[i] = words[i] & ~bitmap.words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+
+            return result.cardinality <= ARRAY_MAX_SIZE ? result.toArrayContainer() : result;
+        }
+
+        @Override
+        Container copy() {
+            final BitmapContainer result = new BitmapContainer();
+            System.arraycopy(words, 0, result.words, 0, words.length);
+            result.cardinality = cardinality;
+            return result;
+        }
+
+        @Override
+        int toArray(int high, int[] result, int offset) {
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    result[offset++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+
+            return offset;
+        }
+
+        @Override
+        BitmapContainer toBitmapContainer() {
+            return this;
+        }
+
+        ArrayContainer toArrayContainer() {
+            final char[] values = new char[Math.max(cardinality, 1)];
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[count++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+
+            return new ArrayContainer(values, count);
+        }
+    }
+}
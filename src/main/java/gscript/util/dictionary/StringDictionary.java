@@ -0,0 +1,70 @@
+package gscript.util.dictionary;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded dictionary of column string values: equal strings read from file or database are replaced
+ * by the same instance, so lines share repeated values (codes, names) instead of keeping their copies.
+ * <p>
+ * If column has more distinct values than dictionary size, dictionary is cleared and values are returned as is.
+ */
+public final class StringDictionary {
+
+    public static final int DEFAULT_MAX_SIZE = 1 << 12;
+
+    private final int maxSize;
+    private Map<String, String> values = new HashMap<>();
+
+    public StringDictionary() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize max number of distinct values
+     */
+    public StringDictionary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return false if column has more distinct values than dictionary size
+     */
+    public boolean isEnabled() {
+        return values != null;
+    }
+
+    /**
+     * @param value string value
+     * @return equal string which was added before or value itself
+     */
+    public String intern(String value) {
+        if (values == null || value == null)
+            return value;
+
+        final String existingValue = values.get(value);
+        if (existingValue != null)
+            return existingValue;
+
+        if (values.size() >= maxSize) {
+            values = null;
+            return value;
+        }
+
+        values.put(value, value);
+        return value;
+    }
+
+    /**
+     * Create dictionaries of columns
+     *
+     * @param count number of columns
+     */
+    public static StringDictionary[] create(int count) {
+        final StringDictionary[] dictionaries = new StringDictionary[count];
+        for (int i = 0; i < count; i++)
+            dictionaries[i] = new StringDictionary();
+
+        return dictionaries;
+    }
+}
@@ -0,0 +1,107 @@
+package gscript.util.qgramm;
+
+import gscript.util.bitmap.CompressedBitmap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inverted index of strings by q-gramms (q = 3, characters are compared ignoring case).
+ * <p>
+ * Unlike {@link QGrammIndex} (which is used for similarity of strings) every q-gramm is kept exactly,
+ * so ids of strings containing a substring are found by intersection of id sets of substring q-gramms.
+ */
+public final class QGrammInvertedIndex {
+
+    /**
+     * Length of q-gramm
+     */
+    public static final int Q = 3;
+
+    private final Map<Long, CompressedBitmap> postings = new HashMap<>();
+
+    /**
+     * Add string to index
+     *
+     * @param id id of string
+     * @param s  string
+     */
+    public void add(int id, String s) {
+        for (int i = 0; i + Q <= s.length(); i++) {
+            final Long gramm = getGramm(s, i);
+
+            CompressedBitmap ids = postings.get(gramm);
+            if (ids == null) {
+                ids = new CompressedBitmap();
+                postings.put(gramm, ids);
+            }
+
+            ids.add(id);
+        }
+    }
+
+    /**
+     * Remove string from index
+     *
+     * @param id id of string
+     * @param s  string
+     */
+    public void remove(int id, String s) {
+        for (int i = 0; i + Q <= s.length(); i++) {
+            final Long gramm = getGramm(s, i);
+
+            final CompressedBitmap ids = postings.get(gramm);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty())
+                    postings.remove(gramm);
+            }
+        }
+    }
+
+    public void clear() {
+        postings.clear();
+    }
+
+    /**
+     * Find ids of strings which may contain all substrings (found strings contain all q-gramms of substrings)
+     *
+     * @param substrings substrings
+     * @return ids or null if substrings are too short
+     */
+    public CompressedBitmap getCandidates(String... substrings) {
+        CompressedBitmap result = null;
+
+        for (String substring : substrings) {
+            for (int i = 0; i + Q <= substring.length(); i++) {
+                final CompressedBitmap ids = postings.get(getGramm(substring, i));
+                if (ids == null)
+                    return new CompressedBitmap();
+
+                result = result == null ? ids.and(ids) : result.and(ids);
+                if (result.isEmpty())
+                    return result;
+            }
+        }
+
+        return result;
+    }
+
+    private static Long getGramm(String s, int offset) {
+        return ((long) fold(s.charAt(offset)) << 32) | ((long) fold(s.charAt(offset + 1)) << 16) | fold(s.charAt(offset + 2));
+    }
+
+    /**
+     * @return case folded character (as String.equalsIgnoreCase compares characters)
+     */
+    public static char fold(char c) {
+        if (c < 128) {
+            if (c >= 'A' && c <= 'Z')
+                return (char) (c + ('a' - 'A'));
+
+            return c;
+        }
+
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
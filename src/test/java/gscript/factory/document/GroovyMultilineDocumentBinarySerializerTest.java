@@ -0,0 +1,115 @@
+package gscript.factory.document;
+
+import gscript.Factory;
+import gscript.GroovyException;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class GroovyMultilineDocumentBinarySerializerTest {
+
+    private final Factory factory = new Factory();
+
+    /**
+     * Lines of several column blocks, values of all encodings, nulls and not put values
+     */
+    private GroovyMultilineDocument createDocument() {
+        final GroovyMultilineDocument document = factory.document.createDocument();
+        document.put("title", "report");
+        document.put("date", new Date(1500000000000L));
+
+        for (int i = 0; i < 20000; i++) {
+            final GroovyMultilineDocument.Line line = document.createLine();
+            line.put("id", i);
+            line.put("status", "status" + i % 5);
+            line.put("name", "name" + i);
+            line.put("amount", i % 10 == 0 ? null : new BigDecimal(i).movePointLeft(2));
+            line.put("date", new Date(1500000000000L + i * 1000L));
+            line.put("mixed", i % 2 == 0 ? (Object) i : "value" + i);
+
+            if (i % 3 == 0)
+                line.put("flag", i % 2 == 0);
+        }
+
+        return document;
+    }
+
+    private static void assertLinesEqual(GroovyMultilineDocument expected, GroovyMultilineDocument actual, String... columnNames) {
+        assertEquals(expected.getLinesCount(), actual.getLinesCount());
+
+        for (int i = 0; i < expected.getLinesCount(); i++) {
+            final GroovyMultilineDocument.Line expectedLine = expected.getLine(i);
+            final GroovyMultilineDocument.Line actualLine = actual.getLine(i);
+
+            for (String columnName : columnNames) {
+                assertEquals(expectedLine.containsKey(columnName), actualLine.containsKey(columnName));
+                assertEquals(expectedLine.get(columnName), actualLine.get(columnName));
+            }
+        }
+    }
+
+    private void assertRoundTrip(boolean compress) throws Exception {
+        final GroovyMultilineDocument document = createDocument();
+        final File file = File.createTempFile("gscript", ".bin");
+        try {
+            document.saveToBinary(file, compress);
+
+            final GroovyMultilineDocument loaded = factory.document.createDocument();
+            loaded.loadFromBinary(file);
+
+            assertEquals("report", loaded.get("title"));
+            assertEquals(document.get("date"), loaded.get("date"));
+            assertEquals(document.getColumnNames(), loaded.getColumnNames());
+            assertLinesEqual(document, loaded, document.getColumnNames().toArray(new String[0]));
+
+            final GroovyMultilineDocument projected = factory.document.createDocument();
+            projected.loadFromBinary(file, "status", "flag");
+
+            assertEquals(Arrays.asList("status", "flag"), Arrays.asList(projected.getColumnNames().toArray()));
+            assertLinesEqual(document, projected, "status", "flag");
+            assertFalse(projected.getLine(0).containsKey("id"));
+        } finally {
+            // file is not locked after loading
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        assertRoundTrip(false);
+    }
+
+    @Test
+    public void compressedRoundTrip() throws Exception {
+        assertRoundTrip(true);
+    }
+
+    @Test
+    public void corruptedBlockIsRejected() throws Exception {
+        final File file = File.createTempFile("gscript", ".bin");
+        try {
+            createDocument().saveToBinary(file, true);
+
+            // first column block starts after header (magic, version, compression)
+            try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+                access.seek(7);
+                access.write(new byte[16]);
+            }
+
+            try {
+                factory.document.createDocument().loadFromBinary(file);
+                fail("Corrupted file is loaded");
+            } catch (GroovyException e) {
+                // expected
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+}
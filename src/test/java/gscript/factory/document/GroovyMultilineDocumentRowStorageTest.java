@@ -0,0 +1,40 @@
+package gscript.factory.document;
+
+import gscript.Factory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class GroovyMultilineDocumentRowStorageTest {
+
+    @Test
+    public void lineFieldsKeepPutOrder() {
+        final GroovyMultilineDocument document = new Factory().document.createDocument();
+
+        final GroovyMultilineDocument.Line first = document.createLine();
+        first.put("a", 1);
+        first.put("b", 2);
+        first.put("c", 3);
+
+        final GroovyMultilineDocument.Line second = document.createLine();
+        second.put("c", 3);
+        second.put("a", 1);
+        second.put("b", null);
+
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(first.keySet()));
+        assertEquals(Arrays.asList("c", "a", "b"), new ArrayList<>(second.keySet()));
+
+        // value replacement keeps position, removed field is put to the end
+        first.put("a", 10);
+        first.remove("b");
+        first.put("b", 20);
+        second.remove("c");
+
+        assertEquals(Arrays.asList("a", "c", "b"), new ArrayList<>(first.keySet()));
+        assertEquals(Arrays.asList(10, 3, 20), new ArrayList<>(first.values()));
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(second.keySet()));
+    }
+}
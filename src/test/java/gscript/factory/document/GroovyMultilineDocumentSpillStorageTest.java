@@ -0,0 +1,52 @@
+package gscript.factory.document;
+
+import gscript.Factory;
+import gscript.GroovyException;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class GroovyMultilineDocumentSpillStorageTest {
+
+    private final Factory factory = new Factory();
+
+    @Test
+    public void spilledLinesAreReadBack() {
+        final GroovyMultilineDocument document = factory.document.createSpillDocument(4096);
+
+        for (int i = 0; i < 20000; i++) {
+            final GroovyMultilineDocument.Line line = document.createLine();
+            line.put("id", i);
+            line.put("name", "name" + i);
+            line.put("values", Arrays.asList(i, i + 1));
+        }
+
+        // pages grow and are moved in spill file
+        for (int i = 0; i < 20000; i += 3)
+            document.getLine(i).put("name", "long name of line " + i);
+
+        for (int i = 0; i < 20000; i++) {
+            final GroovyMultilineDocument.Line line = document.getLine(i);
+            assertEquals(i, line.get("id"));
+            assertEquals(i % 3 == 0 ? "long name of line " + i : "name" + i, line.get("name"));
+            assertEquals(Arrays.asList(i, i + 1), line.get("values"));
+        }
+    }
+
+    @Test
+    public void notSerializableValueIsRejected() {
+        final GroovyMultilineDocument document = factory.document.createSpillDocument(4096);
+        final GroovyMultilineDocument.Line line = document.createLine();
+
+        try {
+            line.put("nested", factory.document.createDocument());
+            fail("Nested document is put");
+        } catch (GroovyException e) {
+            // expected
+        }
+
+        assertFalse(line.containsKey("nested"));
+    }
+}
@@ -0,0 +1,42 @@
+package gscript.factory.document.query.criterion;
+
+import gscript.Factory;
+import gscript.factory.document.GroovyMultilineDocument;
+import org.junit.Test;
+
+import java.util.List;
+
+import static gscript.factory.document.query.criterion.GroovyMultilineDocumentQueryCriterion.group;
+import static org.junit.Assert.assertEquals;
+
+public class GroovyMultilineDocumentQueryGroupCriterionTest {
+
+    @Test
+    public void selectDoesNotDependOnColumnStats() {
+        final GroovyMultilineDocument document = new Factory().document.createDocument();
+        for (int i = 0; i < 100; i++) {
+            final GroovyMultilineDocument.Line line = document.createLine();
+            line.put("a", i % 2);
+            line.put("b", i % 7);
+        }
+
+        // first criterion is added by "or", but group is a conjunction
+        final GroovyMultilineDocumentQueryGroupCriterion criterion = group().or(GroovyMultilineDocumentQueryCriterion.equals("a", 0)).and(GroovyMultilineDocumentQueryCriterion.equals("b", 3));
+
+        final List<GroovyMultilineDocument.Line> withoutStats = criterion.select(document.getLines());
+
+        document.createColumnStats("a");
+        document.createColumnStats("b");
+        final List<GroovyMultilineDocument.Line> withStats = criterion.select(document.getLines());
+
+        assertEquals(withoutStats, withStats);
+
+        int matched = 0;
+        for (GroovyMultilineDocument.Line line : document.getLines())
+            if (criterion.matches(line))
+                matched++;
+
+        assertEquals(matched, withStats.size());
+        assertEquals(7, matched);
+    }
+}